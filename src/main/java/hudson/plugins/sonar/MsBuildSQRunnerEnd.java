@@ -33,6 +33,7 @@ import hudson.plugins.sonar.action.SonarMarkerAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.utils.BuilderUtils;
+import hudson.plugins.sonar.utils.ScannerOutputSniffer;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
@@ -77,14 +78,20 @@ public class MsBuildSQRunnerEnd extends AbstractMsBuildSQRunner {
     args.add(scannerPath);
     addArgs(args, env, sonarInstallation, run);
 
-    int result = launcher.launch().cmds(args).envs(env).stdout(listener).pwd(BuilderUtils.getModuleRoot(run, workspace)).join();
+    ScannerOutputSniffer scannerOutput = new ScannerOutputSniffer(listener.getLogger(), run.getCharset());
+    int result;
+    try {
+      result = launcher.launch().cmds(args).envs(env).stdout(scannerOutput).pwd(BuilderUtils.getModuleRoot(run, workspace)).join();
+    } finally {
+      scannerOutput.forceEol();
+    }
 
     if (result != 0) {
-      addBadge(run, listener, workspace, sonarInstallation);
+      addBadge(run, listener, workspace, sonarInstallation, scannerOutput);
       throw new AbortException(Messages.MSBuildScanner_ExecFailed(result));
     }
 
-    addBadge(run, listener, workspace, sonarInstallation);
+    addBadge(run, listener, workspace, sonarInstallation, scannerOutput);
   }
 
   private void addArgs(ArgumentListBuilder args, EnvVars env, SonarInstallation sonarInstallation, Run<?, ?> run) {
@@ -117,8 +124,9 @@ public class MsBuildSQRunnerEnd extends AbstractMsBuildSQRunner {
     return map;
   }
 
-  private static void addBadge(Run<?, ?> run, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation) throws IOException, InterruptedException {
-    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInstallation);
+  private static void addBadge(Run<?, ?> run, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, ScannerOutputSniffer scannerOutput)
+    throws IOException, InterruptedException {
+    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInstallation, scannerOutput);
   }
 
   @Override
@@ -46,7 +46,8 @@ import hudson.plugins.sonar.action.SonarMarkerAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.utils.Logger;
-import hudson.plugins.sonar.utils.MaskPasswordsOutputStream;
+import hudson.plugins.sonar.utils.PasswordMasker;
+import hudson.plugins.sonar.utils.ScannerOutputSniffer;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.security.ACL;
 import hudson.tasks.BuildWrapperDescriptor;
@@ -198,7 +199,7 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
       passwords.add(token);
     }
 
-    return new SonarQubePasswordLogFilter(passwords, build.getCharset().name());
+    return new SonarQubePasswordLogFilter(PasswordMasker.of(passwords, build.getCharset()), build.getCharset().name());
   }
 
   private static final class AddBuildInfo extends Disposer {
@@ -217,7 +218,9 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
     @Override
     public void tearDown(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
       // null result means success so far. If no logs are found, it's probably because it was simply skipped
-      SonarUtils.addBuildInfoTo(build, listener, workspace, installation, credentialsId, build.getResult() == null);
+      // the console is only sniffed when the log filter runs with the build (freestyle jobs), not for pipelines
+      SonarUtils.addBuildInfoTo(build, listener, workspace, installation, credentialsId, build.getResult() == null, ScannerOutputSniffer.of(build),
+        null);
     }
   }
 
@@ -225,17 +228,34 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
 
     private static final long serialVersionUID = 1L;
 
-    private final List<String> passwords;
+    private final PasswordMasker masker;
     private final String consoleCharset;
+    /**
+     * @deprecated replaced by {@link #masker}, only read from the builds started by older versions
+     */
+    @Deprecated
+    private List<String> passwords;
 
-    public SonarQubePasswordLogFilter(List<String> passwords, String consoleCharset) {
-      this.passwords = passwords;
+    public SonarQubePasswordLogFilter(PasswordMasker masker, String consoleCharset) {
+      this.masker = masker;
       this.consoleCharset = consoleCharset;
     }
 
+    private Object readResolve() {
+      if (masker == null) {
+        return new SonarQubePasswordLogFilter(PasswordMasker.of(passwords, Charset.forName(consoleCharset)), consoleCharset);
+      }
+      return this;
+    }
+
     @Override
-    public OutputStream decorateLogger(Run ignore, OutputStream logger) throws IOException, InterruptedException {
-      return new MaskPasswordsOutputStream(logger, Charset.forName(consoleCharset), passwords);
+    public OutputStream decorateLogger(@Nullable Run build, OutputStream logger) throws IOException, InterruptedException {
+      OutputStream masked = masker.mask(logger);
+      if (build == null) {
+        return masked;
+      }
+      Charset charset = Charset.forName(consoleCharset);
+      return ScannerOutputSniffer.attach(build, masked, charset);
     }
 
   }
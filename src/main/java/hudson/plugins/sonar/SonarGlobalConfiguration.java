@@ -29,6 +29,7 @@ import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.plugins.sonar.SonarPublisher.DescriptorImpl;
 import hudson.plugins.sonar.utils.Logger;
+import hudson.plugins.sonar.utils.ServerVersionCache;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -88,6 +89,7 @@ public class SonarGlobalConfiguration extends GlobalConfiguration implements Ser
 
   public void setInstallations(SonarInstallation... installations) {
     this.installations = installations;
+    ServerVersionCache.get().invalidateAll();
     save();
   }
 
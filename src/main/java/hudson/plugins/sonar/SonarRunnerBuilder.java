@@ -44,11 +44,13 @@ import hudson.plugins.sonar.utils.BuilderUtils;
 import hudson.plugins.sonar.utils.ExtendedArgumentListBuilder;
 import hudson.plugins.sonar.utils.JenkinsRouter;
 import hudson.plugins.sonar.utils.Logger;
+import hudson.plugins.sonar.utils.ScannerOutputSniffer;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.Map.Entry;
 import java.util.Properties;
@@ -266,17 +268,19 @@ public class SonarRunnerBuilder extends Builder {
     env.put("SONAR_RUNNER_OPTS", getJavaOpts());
 
     long startTime = System.currentTimeMillis();
+    ScannerOutputSniffer scannerOutput = new ScannerOutputSniffer(listener.getLogger(), run.getCharset());
     int exitCode;
     try {
-      exitCode = executeSonarQubeScanner(run, workspace, launcher, listener, args, env);
+      exitCode = executeSonarQubeScanner(run, workspace, launcher, scannerOutput, args, env);
     } catch (IOException e) {
       handleErrors(listener, sri, startTime, e);
       exitCode = -1;
+    } finally {
+      scannerOutput.forceEol();
     }
 
-    // with workflows, we don't have realtime access to build logs, so url might be null
-    // if the analyis doesn't succeed, it will also be null
-    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInst);
+    // if the analyis doesn't succeed, the url will be null
+    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInst, scannerOutput, getWorkingDirectory(run, workspace, env));
 
     if (exitCode != 0) {
       throw new AbortException("SonarQube scanner exited with non-zero code: " + exitCode);
@@ -295,9 +299,9 @@ public class SonarRunnerBuilder extends Builder {
     e.printStackTrace(listener.fatalError(errorMessage));
   }
 
-  private static int executeSonarQubeScanner(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, ArgumentListBuilder args, EnvVars env)
+  private static int executeSonarQubeScanner(Run<?, ?> build, FilePath workspace, Launcher launcher, OutputStream stdout, ArgumentListBuilder args, EnvVars env)
     throws IOException, InterruptedException {
-    return launcher.launch().cmds(args).envs(env).stdout(listener).pwd(BuilderUtils.getModuleRoot(build, workspace)).join();
+    return launcher.launch().cmds(args).envs(env).stdout(stdout).pwd(BuilderUtils.getModuleRoot(build, workspace)).join();
   }
 
   private static AbstractProject<?, ?> getProject(Run<?, ?> run) {
@@ -375,6 +379,22 @@ public class SonarRunnerBuilder extends Builder {
     }
   }
 
+  /**
+   * @return absolute path of the 'sonar.working.directory' given in the additional properties, if any
+   */
+  @CheckForNull
+  private String getWorkingDirectory(Run<?, ?> build, FilePath workspace, EnvVars env) throws IOException, InterruptedException {
+    Properties p = new Properties();
+    p.load(new StringReader(env.expand(getProperties())));
+    String workingDirectory = p.getProperty("sonar.working.directory");
+    if (StringUtils.isBlank(workingDirectory)) {
+      return null;
+    }
+    String projectBaseDir = p.getProperty("sonar.projectBaseDir");
+    FilePath baseDir = projectBaseDir != null ? workspace.child(projectBaseDir) : BuilderUtils.getModuleRoot(build, workspace);
+    return baseDir.child(workingDirectory).getRemote();
+  }
+
   private static void loadProperties(ExtendedArgumentListBuilder args, Properties p) {
     for (Entry<Object, Object> entry : p.entrySet()) {
       args.append(entry.getKey().toString(), entry.getValue().toString());
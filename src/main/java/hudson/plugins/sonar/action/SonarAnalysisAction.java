@@ -22,6 +22,7 @@ package hudson.plugins.sonar.action;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.InvisibleAction;
+import hudson.plugins.sonar.client.ProjectInformation;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -39,6 +40,8 @@ public class SonarAnalysisAction extends InvisibleAction {
   private String serverUrl;
   private boolean isNew;
   private boolean isSkipped;
+  // Quality gate, once the CE task is finished
+  private ProjectInformation qualityGate;
 
   public SonarAnalysisAction(String installationName, @Nullable String credentialId, @Nullable String installationUrl) {
     this.installationName = installationName;
@@ -125,4 +128,16 @@ public class SonarAnalysisAction extends InvisibleAction {
   public String getCredentialsId() {
     return credentialsId;
   }
+
+  /**
+   * Quality gate of the analysis, only known here once the CE task is finished
+   */
+  @CheckForNull
+  public ProjectInformation getQualityGate() {
+    return qualityGate;
+  }
+
+  public void setQualityGate(@Nullable ProjectInformation qualityGate) {
+    this.qualityGate = qualityGate;
+  }
 }
@@ -19,102 +19,22 @@
  */
 package hudson.plugins.sonar.action;
 
-import com.google.common.annotations.VisibleForTesting;
-import edu.umd.cs.findbugs.annotations.CheckForNull;
-import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.InvisibleAction;
-import hudson.model.Run;
 import hudson.plugins.sonar.client.ProjectInformation;
-import hudson.plugins.sonar.client.SQProjectResolver;
-import java.util.ArrayList;
+import hudson.plugins.sonar.client.QualityGateCache;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * Used to cache the quality gates of each build.
+ * Old fields are left so that existing builds can be read in, but are transient so that they won't show up in XML
+ * when writing back.
+ *
+ * @deprecated replaced by {@link QualityGateCache}, only kept to load the builds that have one
+ */
+@Deprecated
 public class SonarCacheAction extends InvisibleAction {
-  private Map<String, ProjectInformation> infoByTaskId;
-  private Long lastRequest;
-  private List<ProjectInformation> lastProjInfo;
-
-  public SonarCacheAction() {
-    this.infoByTaskId = new ConcurrentHashMap<>();
-  }
-
-  public List<ProjectInformation> get(SQProjectResolver resolver, long lastBuildTime, List<SonarAnalysisAction> analysis, Run<?, ?> run) {
-    if (lastRequest != null && age(lastRequest) < TimeUnit.SECONDS.toMillis(30)) {
-      return lastProjInfo;
-    }
-
-    List<ProjectInformation> list = new ArrayList<>(analysis.size());
-
-    for (SonarAnalysisAction a : analysis) {
-      ProjectInformation proj = get(resolver, lastBuildTime, a, run);
-      if (proj != null) {
-        list.add(proj);
-      }
-    }
-
-    cacheProjectInfo(list, System.currentTimeMillis());
-    return list;
-  }
-
-  @CheckForNull
-  @VisibleForTesting
-  ProjectInformation get(SQProjectResolver resolver, long lastBuildTime, SonarAnalysisAction analysis, Run<?, ?> run) {
-    String taskId = analysis.getCeTaskId();
-
-    if (taskId == null) {
-      return null;
-    }
-
-    ProjectInformation cached = infoByTaskId.get(taskId);
-    if (isEntryValid(cached, lastBuildTime)) {
-      return cached;
-    }
-
-    ProjectInformation proj = resolver.resolve(analysis.getInstallationUrl(), analysis.getUrl(), taskId, analysis.getInstallationName(), run);
-    if (proj != null) {
-      infoByTaskId.put(taskId, proj);
-    }
-
-    return proj;
-  }
-
-  @VisibleForTesting
-  static boolean isEntryValid(@Nullable ProjectInformation cached, long lastBuild) {
-    if (cached == null) {
-      return false;
-    }
-
-    String status = cached.getCeStatus();
-    if (status != null) {
-      // check if CE task is done -> info won't change
-      if ("failed".equalsIgnoreCase(status) || "success".equalsIgnoreCase(status) || "canceled".equalsIgnoreCase(status)) {
-        return true;
-      }
-    } else {
-      // check if last build was before last update (giving 60sec margin)
-      long age = diff(cached, lastBuild);
-      if (age > TimeUnit.SECONDS.toMillis(60)) {
-        return true;
-      }
-    }
-
-    return false;
-  }
-
-  @VisibleForTesting
-  protected void cacheProjectInfo(List<ProjectInformation> list, Long time) {
-    lastProjInfo = list;
-    lastRequest = time;
-  }
-
-  private static long age(long time) {
-    return System.currentTimeMillis() - time;
-  }
-
-  private static long diff(ProjectInformation proj, long lastBuild) {
-    return proj.created() - lastBuild;
-  }
+  private transient Map<String, ProjectInformation> infoByTaskId;
+  private transient Long lastRequest;
+  private transient List<ProjectInformation> lastProjInfo;
 }
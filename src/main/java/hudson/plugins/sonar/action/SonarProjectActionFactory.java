@@ -19,10 +19,10 @@
  */
 package hudson.plugins.sonar.action;
 
+import com.google.common.annotations.VisibleForTesting;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.model.Action;
-import hudson.model.Actionable;
 import hudson.model.BuildableItemWithBuildWrappers;
 import hudson.model.Job;
 import hudson.model.ProminentProjectAction;
@@ -31,24 +31,60 @@ import hudson.plugins.sonar.SonarBuildWrapper;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.QualityGateCache;
 import hudson.plugins.sonar.client.SQProjectResolver;
+import hudson.plugins.sonar.utils.Logger;
 import hudson.plugins.sonar.utils.SonarUtils;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import jenkins.model.TransientActionFactory;
+import jenkins.util.SystemProperties;
 
 @Extension
 /**
  * We don't use {@link TransientProjectActionFactory} because it appears to be cached and requires Jenkins to restart.
  */
 public class SonarProjectActionFactory extends TransientActionFactory<Job> {
+  private static final String PREFIX = SonarProjectActionFactory.class.getName();
+  private static final int REFRESH_THREADS = SystemProperties.getInteger(PREFIX + ".refreshThreads", 4);
+  private static final int REFRESH_QUEUE_SIZE = SystemProperties.getInteger(PREFIX + ".refreshQueueSize", 100);
+
+  /**
+   * Quality gates are fetched from SonarQube here rather than in the thread rendering the job page
+   */
+  private static final Executor REFRESH_EXECUTOR = createRefreshExecutor();
+
   private SQProjectResolver resolver;
+  private final Executor executor;
 
   public SonarProjectActionFactory() {
-    resolver = new SQProjectResolver(new HttpClient(OkHttpClientSingleton.getInstance()));
+    this(new SQProjectResolver(new HttpClient(OkHttpClientSingleton.getInstance())), REFRESH_EXECUTOR);
+  }
+
+  @VisibleForTesting
+  SonarProjectActionFactory(SQProjectResolver resolver, Executor executor) {
+    this.resolver = resolver;
+    this.executor = executor;
+  }
+
+  private static Executor createRefreshExecutor() {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE),
+      new NamingThreadFactory(new DaemonThreadFactory(), "SonarQube quality gate refresh"));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
   }
 
   @Override
@@ -86,7 +122,7 @@ public class SonarProjectActionFactory extends TransientActionFactory<Job> {
         sonarProjectActions.add(new SonarProjectIconAction());
       }
     } else {
-      SonarProjectPageAction projectPage = createProjectPage(lastBuild, filteredActions);
+      SonarProjectPageAction projectPage = createProjectPage(project, lastBuild, filteredActions);
       if (projectPage != null) {
         sonarProjectActions.add(projectPage);
       }
@@ -115,25 +151,89 @@ public class SonarProjectActionFactory extends TransientActionFactory<Job> {
    * Action that will create the jelly section in the Project page
    */
   @CheckForNull
-  private SonarProjectPageAction createProjectPage(Run<?, ?> run, List<SonarAnalysisAction> actions) {
-    long endTime = run.getStartTimeInMillis() + run.getDuration();
-    List<ProjectInformation> projects;
+  private SonarProjectPageAction createProjectPage(Job<?, ?> project, Run<?, ?> run, List<SonarAnalysisAction> actions) {
+    QualityGateCache cache = QualityGateCache.get();
+    List<ProjectInformation> projects = new ArrayList<>(actions.size());
+    List<SonarAnalysisAction> stale = new ArrayList<>();
+    List<SQProjectResolver.Analysis> toResolve = new ArrayList<>();
+    boolean refreshing = false;
 
-    SonarCacheAction cache = getOrCreateCache(run);
-    projects = cache.get(resolver, endTime, actions, run);
+    for (SonarAnalysisAction a : actions) {
+      String taskId = a.getCeTaskId();
+      String serverUrl = a.getInstallationUrl();
+      if (taskId == null || serverUrl == null) {
+        continue;
+      }
+      ProjectInformation proj = a.getQualityGate();
+      if (proj == null) {
+        proj = cache.getIfPresent(serverUrl, taskId);
+        if (cache.startRefreshIfStale(serverUrl, taskId)) {
+          stale.add(a);
+          toResolve.add(new SQProjectResolver.Analysis(serverUrl, a.getUrl(), taskId, a.getInstallationName()));
+        } else {
+          refreshing |= cache.isRefreshing(serverUrl, taskId);
+        }
+      }
+      if (proj != null) {
+        projects.add(proj);
+      }
+    }
 
-    if (projects == null || projects.isEmpty()) {
+    if (!stale.isEmpty()) {
+      refreshing |= refresh(cache, run, stale, toResolve);
+    }
+    if (projects.isEmpty() && !refreshing) {
       return null;
     }
-    return new SonarProjectPageAction(projects);
+    return new SonarProjectPageAction(project, projects, refreshing);
+  }
+
+  /**
+   * Resolves the quality gates of the analyses in the background, all in one go
+   *
+   * @return false if too many quality gates are already being resolved
+   */
+  private boolean refresh(QualityGateCache cache, Run<?, ?> run, List<SonarAnalysisAction> actions, List<SQProjectResolver.Analysis> analyses) {
+    try {
+      executor.execute(() -> {
+        try {
+          List<ProjectInformation> resolved = resolver.resolveAll(analyses, run);
+          boolean finished = false;
+          for (int i = 0; i < analyses.size(); i++) {
+            ProjectInformation proj = resolved.get(i);
+            if (QualityGateCache.isTerminal(proj)) {
+              actions.get(i).setQualityGate(proj);
+              finished = true;
+            }
+            cache.put(analyses.get(i).getServerUrl(), analyses.get(i).getCeTaskId(), proj);
+          }
+          if (finished) {
+            save(run);
+          }
+        } finally {
+          endRefresh(cache, analyses);
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      Logger.LOG.fine(() -> "Too many quality gates being resolved, skipping " + run);
+      endRefresh(cache, analyses);
+      return false;
+    }
+  }
+
+  private static void endRefresh(QualityGateCache cache, List<SQProjectResolver.Analysis> analyses) {
+    for (SQProjectResolver.Analysis a : analyses) {
+      cache.endRefresh(a.getServerUrl(), a.getCeTaskId());
+    }
   }
 
-  private static SonarCacheAction getOrCreateCache(Actionable actionable) {
-    SonarCacheAction cache = SonarUtils.getPersistentAction(actionable, SonarCacheAction.class);
-    if (cache == null) {
-      cache = new SonarCacheAction();
-      actionable.addAction(cache);
+  private static void save(Run<?, ?> run) {
+    // the quality gate of a finished task won't change
+    try {
+      run.save();
+    } catch (IOException e) {
+      Logger.LOG.log(Level.WARNING, "Unable to save the quality gate of " + run, e);
     }
-    return cache;
   }
 }
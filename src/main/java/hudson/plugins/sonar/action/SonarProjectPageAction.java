@@ -19,9 +19,13 @@
  */
 package hudson.plugins.sonar.action;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.InvisibleAction;
+import hudson.model.Job;
 import hudson.model.ProminentProjectAction;
 import hudson.plugins.sonar.client.ProjectInformation;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -29,10 +33,22 @@ import java.util.List;
  * This is recreated every time something is loaded, so should be lightweight
  */
 public class SonarProjectPageAction extends InvisibleAction implements ProminentProjectAction {
+  private final Job<?, ?> job;
   private final List<ProjectInformation> projects;
+  private final boolean refreshing;
 
   public SonarProjectPageAction(List<ProjectInformation> projects) {
-    this.projects = projects;
+    this(null, projects, false);
+  }
+
+  /**
+   * @param projects last known information, possibly null or outdated if {@code refreshing}
+   * @param refreshing whether newer information is being fetched in the background
+   */
+  public SonarProjectPageAction(@Nullable Job<?, ?> job, @Nullable List<ProjectInformation> projects, boolean refreshing) {
+    this.job = job;
+    this.projects = projects != null ? projects : Collections.emptyList();
+    this.refreshing = refreshing;
   }
 
   /**
@@ -41,4 +57,26 @@ public class SonarProjectPageAction extends InvisibleAction implements Prominent
   public List<ProjectInformation> getProjects() {
     return projects;
   }
+
+  @CheckForNull
+  public String getJobFullName() {
+    return job != null ? job.getFullName() : null;
+  }
+
+  /**
+   * Whether the section should be reloaded in a few seconds, see {@link SonarQualityGatePanel}
+   */
+  public boolean isUpdating() {
+    if (refreshing) {
+      return true;
+    }
+    for (ProjectInformation project : projects) {
+      String ceStatus = project.getCeStatus();
+      // CE status is lower case, see ProjectInformation#setCeStatus
+      if ("pending".equals(ceStatus) || "in_progress".equals(ceStatus)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
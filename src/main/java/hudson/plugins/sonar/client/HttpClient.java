@@ -22,7 +22,14 @@ package hudson.plugins.sonar.client;
 import com.google.common.base.Strings;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -40,6 +47,80 @@ public class HttpClient {
   public String getHttp(String url, @Nullable String token) {
     Request request = newRequest(url, token);
     Response response = httpCall(request);
+    return handleResponse(url, response);
+  }
+
+  /**
+   * Reads a successful response straight from the connection, without loading the whole body in memory first.
+   * Error responses are still fully read, for the {@link HttpException} message.
+   */
+  public <T> T getHttp(String url, @Nullable String token, ResponseReader<T> reader) {
+    return getHttp(url, token, null, asBodyReader(reader));
+  }
+
+  /**
+   * Like {@link #getHttp(String, String, ResponseReader)}, asking for the given media type. The server may still answer
+   * with another one, so the reader should check {@link ResponseBody#contentType()}.
+   */
+  public <T> T getHttp(String url, @Nullable String token, @Nullable String accept, BodyReader<T> reader) {
+    Request request = newRequest(url, token, accept);
+    Response response = httpCall(request);
+    return handleResponse(url, response, reader);
+  }
+
+  /**
+   * Same as {@link #getHttp(String, String)}, without blocking the caller: the request is run by the OkHttp dispatcher,
+   * which completes the returned future. The request is aborted if it takes more than {@code timeout}, or if the
+   * future is cancelled.
+   */
+  public CompletableFuture<String> getHttpAsync(String url, @Nullable String token, Duration timeout) {
+    return enqueue(newRequest(url, token, null), timeout, response -> handleResponse(url, response));
+  }
+
+  /**
+   * Same as {@link #getHttp(String, String, ResponseReader)}, without blocking the caller. The reader is called on an
+   * OkHttp dispatcher thread.
+   */
+  public <T> CompletableFuture<T> getHttpAsync(String url, @Nullable String token, Duration timeout, ResponseReader<T> reader) {
+    return getHttpAsync(url, token, timeout, null, asBodyReader(reader));
+  }
+
+  /**
+   * Same as {@link #getHttp(String, String, String, BodyReader)}, without blocking the caller
+   */
+  public <T> CompletableFuture<T> getHttpAsync(String url, @Nullable String token, Duration timeout, @Nullable String accept, BodyReader<T> reader) {
+    return enqueue(newRequest(url, token, accept), timeout, response -> handleResponse(url, response, reader));
+  }
+
+  private <T> CompletableFuture<T> enqueue(Request request, Duration timeout, Function<Response, T> handler) {
+    Call call = okHttpClient.newCall(request);
+    call.timeout().timeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.whenComplete((content, e) -> {
+      if (future.isCancelled()) {
+        call.cancel();
+      }
+    });
+    call.enqueue(new Callback() {
+      @Override
+      public void onFailure(Call c, IOException e) {
+        future.completeExceptionally(new IllegalStateException("Fail to request " + request.url(), e));
+      }
+
+      @Override
+      public void onResponse(Call c, Response response) {
+        try {
+          future.complete(handler.apply(response));
+        } catch (RuntimeException e) {
+          future.completeExceptionally(e);
+        }
+      }
+    });
+    return future;
+  }
+
+  private static String handleResponse(String url, Response response) {
     String content = getContent(response);
 
     if (isSuccessful(response)) {
@@ -49,11 +130,33 @@ public class HttpClient {
     }
   }
 
+  private static <T> T handleResponse(String url, Response response, BodyReader<T> reader) {
+    if (!isSuccessful(response)) {
+      throw new HttpException(url, response.code(), getContent(response));
+    }
+    try (ResponseBody body = response.body()) {
+      return reader.read(body);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read response of " + response.request().url(), e);
+    }
+  }
+
+  private static <T> BodyReader<T> asBodyReader(ResponseReader<T> reader) {
+    return body -> reader.read(body.charStream());
+  }
+
   private static Request newRequest(String url, @Nullable String token) {
+    return newRequest(url, token, null);
+  }
+
+  private static Request newRequest(String url, @Nullable String token, @Nullable String accept) {
     Request.Builder builder = new Request.Builder().url(url);
     if (!Strings.isNullOrEmpty(token)) {
       builder.addHeader("Authorization", Credentials.basic(token, "", StandardCharsets.UTF_8));
     }
+    if (accept != null) {
+      builder.addHeader("Accept", accept);
+    }
     return builder.build();
   }
 
@@ -77,4 +180,20 @@ public class HttpClient {
     return response.code() >= 200 && response.code() < 300;
   }
 
+  /**
+   * Consumes the body of a successful response
+   */
+  @FunctionalInterface
+  public interface ResponseReader<T> {
+    T read(Reader body) throws IOException;
+  }
+
+  /**
+   * Consumes the raw body of a successful response, whatever its media type
+   */
+  @FunctionalInterface
+  public interface BodyReader<T> {
+    T read(ResponseBody body) throws IOException;
+  }
+
 }
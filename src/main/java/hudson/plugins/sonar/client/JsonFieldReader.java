@@ -0,0 +1,372 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads a few fields of a JSON document without building it in memory, and stops reading as soon as all of them are
+ * found. Fields are designated by the path of object keys leading to them, like {@code task.status}. Values nested in
+ * arrays can't be read, except in the objects of a single array, each read in turn. Only scalar values are returned, as
+ * strings.
+ * <p>
+ * Like json-lib, this accepts unquoted and single-quoted keys and strings.
+ */
+public final class JsonFieldReader {
+  private final Reader reader;
+  private final Fields document;
+  @Nullable
+  private final String arrayPath;
+  @Nullable
+  private final Set<String> elementPaths;
+  @Nullable
+  private final Consumer<Map<String, String>> elements;
+  private final char[] buffer = new char[4096];
+  private int pos;
+  private int limit;
+  private long offset;
+
+  private JsonFieldReader(Reader reader, Set<String> wanted, @Nullable String arrayPath, @Nullable Set<String> elementPaths,
+    @Nullable Consumer<Map<String, String>> elements) {
+    this.reader = reader;
+    this.document = new Fields(wanted);
+    this.arrayPath = arrayPath;
+    this.elementPaths = elementPaths;
+    this.elements = elements;
+  }
+
+  /**
+   * @return the values of the fields that were found, indexed by path. JSON {@code null} is returned as a null value.
+   * @throws MalformedJsonException if the document is not valid JSON (even leniently)
+   */
+  public static Map<String, String> read(Reader reader, String... paths) throws IOException {
+    return new JsonFieldReader(reader, toSet(paths), null, null, null).readDocument();
+  }
+
+  /**
+   * Same as {@link #read(Reader, String...)}, also reading the fields of each object of the array at {@code arrayPath}
+   *
+   * @param elementPaths paths of the fields to read in each object of the array, relative to the object
+   * @param elements called with the fields found in each object of the array, in order
+   * @return the values of the fields found outside of the array, and the number of objects in the array under
+   * {@code arrayPath} if it was found
+   */
+  public static Map<String, String> read(Reader reader, String arrayPath, Set<String> elementPaths, Consumer<Map<String, String>> elements,
+    String... paths) throws IOException {
+    return new JsonFieldReader(reader, toSet(paths), arrayPath, elementPaths, elements).readDocument();
+  }
+
+  private static Set<String> toSet(String... paths) {
+    Set<String> set = new HashSet<>();
+    Collections.addAll(set, paths);
+    return set;
+  }
+
+  private Map<String, String> readDocument() throws IOException {
+    if (nextNonWhitespace() != '{') {
+      throw error("Expected an object");
+    }
+    readObject("", document);
+    return document.found;
+  }
+
+  private boolean done() {
+    if (arrayPath == null) {
+      return document.found.size() == document.wanted.size();
+    }
+    return document.found.containsKey(arrayPath) && document.found.size() == document.wanted.size() + 1;
+  }
+
+  /**
+   * Reads the members of an object, after its opening brace
+   */
+  private void readObject(String path, Fields fields) throws IOException {
+    int c = nextNonWhitespace();
+    if (c == '}') {
+      return;
+    }
+    while (true) {
+      String key = readKey(c);
+      if (nextNonWhitespace() != ':') {
+        throw error("Expected ':'");
+      }
+      String child = path.isEmpty() ? key : (path + "." + key);
+      c = nextNonWhitespace();
+      if (fields.wanted.contains(child)) {
+        readValue(child, c, fields.found);
+      } else if (c == '{' && fields.parents.contains(child)) {
+        readObject(child, fields);
+      } else if (c == '[' && fields == document && child.equals(arrayPath)) {
+        readArray();
+      } else {
+        skipValue(c);
+      }
+      // the objects of the array are read entirely, to go on with the next ones
+      if (fields == document && done()) {
+        return;
+      }
+
+      c = nextNonWhitespace();
+      if (c == '}') {
+        return;
+      }
+      if (c != ',') {
+        throw error("Expected ',' or '}'");
+      }
+      c = nextNonWhitespace();
+    }
+  }
+
+  /**
+   * Reads the elements of the array at {@link #arrayPath}, after its opening bracket
+   */
+  private void readArray() throws IOException {
+    int count = 0;
+    int c = nextNonWhitespace();
+    while (c != ']') {
+      if (c == '{') {
+        Fields element = new Fields(elementPaths);
+        readObject("", element);
+        elements.accept(element.found);
+        count++;
+      } else {
+        skipValue(c);
+      }
+      c = nextNonWhitespace();
+      if (c == ',') {
+        c = nextNonWhitespace();
+      } else if (c != ']') {
+        throw error("Expected ',' or ']'");
+      }
+    }
+    document.found.put(arrayPath, Integer.toString(count));
+  }
+
+  private String readKey(int c) throws IOException {
+    if (c == '"' || c == '\'') {
+      return readString((char) c);
+    }
+    StringBuilder sb = new StringBuilder();
+    while (c != -1 && c != ':' && !Character.isWhitespace(c)) {
+      if (c == '{' || c == '}' || c == '[' || c == ']' || c == ',') {
+        throw error("Unexpected '" + (char) c + "' in key");
+      }
+      sb.append((char) c);
+      c = read();
+    }
+    if (sb.length() == 0) {
+      throw error("Expected a key");
+    }
+    unread(c);
+    return sb.toString();
+  }
+
+  private void readValue(String path, int c, Map<String, String> found) throws IOException {
+    if (c == '"' || c == '\'') {
+      found.put(path, readString((char) c));
+    } else if (c == '{' || c == '[') {
+      // not a scalar
+      skipValue(c);
+    } else {
+      String literal = readLiteral(c);
+      found.put(path, "null".equals(literal) ? null : literal);
+    }
+  }
+
+  private void skipValue(int c) throws IOException {
+    if (c == '"' || c == '\'') {
+      skipString((char) c);
+    } else if (c == '{' || c == '[') {
+      int depth = 1;
+      while (depth > 0) {
+        c = read();
+        switch (c) {
+          case -1:
+            throw error("Unexpected end of document");
+          case '{':
+          case '[':
+            depth++;
+            break;
+          case '}':
+          case ']':
+            depth--;
+            break;
+          case '"':
+          case '\'':
+            skipString((char) c);
+            break;
+          default:
+            break;
+        }
+      }
+    } else {
+      readLiteral(c);
+    }
+  }
+
+  /**
+   * Number, boolean or null
+   */
+  private String readLiteral(int c) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+      sb.append((char) c);
+      c = read();
+    }
+    if (sb.length() == 0) {
+      throw error("Expected a value");
+    }
+    unread(c);
+    return sb.toString();
+  }
+
+  private String readString(char quote) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      int c = read();
+      if (c == quote) {
+        return sb.toString();
+      }
+      switch (c) {
+        case -1:
+          throw error("Unterminated string");
+        case '\\':
+          sb.append(readEscaped());
+          break;
+        default:
+          sb.append((char) c);
+      }
+    }
+  }
+
+  private void skipString(char quote) throws IOException {
+    while (true) {
+      int c = read();
+      if (c == quote) {
+        return;
+      }
+      if (c == -1) {
+        throw error("Unterminated string");
+      }
+      if (c == '\\') {
+        readEscaped();
+      }
+    }
+  }
+
+  private char readEscaped() throws IOException {
+    int c = read();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit < 0) {
+            throw error("Invalid unicode escape");
+          }
+          code = (code << 4) | digit;
+        }
+        return (char) code;
+      case -1:
+        throw error("Unterminated string");
+      default:
+        // \" \\ \/ and lenient escapes
+        return (char) c;
+    }
+  }
+
+  private int nextNonWhitespace() throws IOException {
+    int c = read();
+    while (c != -1 && Character.isWhitespace(c)) {
+      c = read();
+    }
+    return c;
+  }
+
+  private int read() throws IOException {
+    if (pos == limit) {
+      offset += limit;
+      int n = reader.read(buffer, 0, buffer.length);
+      if (n <= 0) {
+        pos = 0;
+        limit = 0;
+        return -1;
+      }
+      pos = 0;
+      limit = n;
+    }
+    return buffer[pos++];
+  }
+
+  /**
+   * Gives back the last character returned by {@link #read()}, which is always still in the buffer
+   */
+  private void unread(int c) {
+    if (c != -1) {
+      pos--;
+    }
+  }
+
+  private MalformedJsonException error(String message) {
+    return new MalformedJsonException(message + " at offset " + (offset + pos));
+  }
+
+  /**
+   * Fields to read in an object, and those found
+   */
+  private static final class Fields {
+    private final Set<String> wanted;
+    private final Set<String> parents = new HashSet<>();
+    private final Map<String, String> found = new HashMap<>();
+
+    private Fields(Set<String> wanted) {
+      this.wanted = wanted;
+      for (String path : wanted) {
+        for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', i + 1)) {
+          parents.add(path.substring(0, i));
+        }
+      }
+    }
+  }
+
+  public static class MalformedJsonException extends IOException {
+    MalformedJsonException(String message) {
+      super(message);
+    }
+  }
+}
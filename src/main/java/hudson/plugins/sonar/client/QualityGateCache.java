@@ -0,0 +1,247 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.utils.Logger;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import jenkins.util.SystemProperties;
+
+/**
+ * Quality gates of the analyses displayed in Jenkins, shared by all jobs and keyed by server URL and CE task id.
+ * <p>
+ * How long an entry is trusted depends on the CE task: a finished task never changes, so it is kept for
+ * {@code terminalTtlHours}, while a pending task is resolved again after a few seconds. Failures to resolve a task
+ * are remembered for a minute. The cache is bounded by an estimate of the memory used by its entries.
+ */
+public final class QualityGateCache {
+  private static final String PREFIX = QualityGateCache.class.getName();
+  private static final QualityGateCache INSTANCE = new QualityGateCache(
+    SystemProperties.getLong(PREFIX + ".maxWeight", 8L * 1024 * 1024),
+    SystemProperties.getLong(PREFIX + ".terminalTtlHours", 24L),
+    Ticker.systemTicker());
+
+  static final long PENDING_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(10);
+  static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(60);
+  private static final long NON_TERMINAL_TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final Cache<Key, Entry> entries;
+  private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+  private final Ticker ticker;
+
+  QualityGateCache(long maxWeight, long terminalTtlHours, Ticker ticker) {
+    long terminalTtlNanos = TimeUnit.HOURS.toNanos(terminalTtlHours);
+    this.ticker = ticker;
+    this.entries = Caffeine.newBuilder()
+      .maximumWeight(maxWeight)
+      .weigher((Key key, Entry entry) -> key.weight() + entry.weight())
+      .expireAfter(new Expiry<Key, Entry>() {
+        @Override
+        public long expireAfterCreate(Key key, Entry entry, long currentTime) {
+          return entry.isTerminal() ? terminalTtlNanos : NON_TERMINAL_TTL_NANOS;
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Entry entry, long currentTime, long currentDuration) {
+          return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Entry entry, long currentTime, long currentDuration) {
+          return currentDuration;
+        }
+      })
+      .ticker(ticker)
+      .recordStats()
+      .build();
+  }
+
+  public static QualityGateCache get() {
+    return INSTANCE;
+  }
+
+  @CheckForNull
+  public ProjectInformation getIfPresent(String serverUrl, String ceTaskId) {
+    Entry entry = entries.getIfPresent(new Key(serverUrl, ceTaskId));
+    return entry != null ? entry.info : null;
+  }
+
+  /**
+   * @param info null if the quality gate could not be resolved
+   */
+  public void put(String serverUrl, String ceTaskId, @Nullable ProjectInformation info) {
+    entries.put(new Key(serverUrl, ceTaskId), new Entry(info, ticker.read()));
+  }
+
+  /**
+   * Resolves the quality gate again with {@code loader} on {@code executor}, unless the cached one is recent enough
+   * for the state of its CE task. There is at most one resolution in progress for a given task.
+   *
+   * @return whether the quality gate is being resolved
+   */
+  public boolean refreshIfStale(String serverUrl, String ceTaskId, Supplier<ProjectInformation> loader, Executor executor) {
+    if (!startRefreshIfStale(serverUrl, ceTaskId)) {
+      return isRefreshing(serverUrl, ceTaskId);
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          put(serverUrl, ceTaskId, loader.get());
+        } finally {
+          endRefresh(serverUrl, ceTaskId);
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      Logger.LOG.fine(() -> "Too many quality gates being resolved, skipping task " + ceTaskId);
+      endRefresh(serverUrl, ceTaskId);
+      return false;
+    }
+  }
+
+  /**
+   * For callers that resolve several quality gates together: marks the quality gate as being resolved, unless the
+   * cached one is recent enough or it is already being resolved. When this returns true, the caller must
+   * {@link #put(String, String, ProjectInformation)} the result, and then call {@link #endRefresh(String, String)}.
+   */
+  public boolean startRefreshIfStale(String serverUrl, String ceTaskId) {
+    Key key = new Key(serverUrl, ceTaskId);
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null && !entry.isStale(ticker.read())) {
+      return false;
+    }
+    return refreshing.add(key);
+  }
+
+  public void endRefresh(String serverUrl, String ceTaskId) {
+    refreshing.remove(new Key(serverUrl, ceTaskId));
+  }
+
+  public boolean isRefreshing(String serverUrl, String ceTaskId) {
+    return refreshing.contains(new Key(serverUrl, ceTaskId));
+  }
+
+  public CacheStats stats() {
+    return entries.stats();
+  }
+
+  public void invalidateAll() {
+    entries.invalidateAll();
+  }
+
+  long size() {
+    entries.cleanUp();
+    return entries.estimatedSize();
+  }
+
+  /**
+   * Whether the CE task is finished, in which case its quality gate won't change anymore
+   */
+  public static boolean isTerminal(@Nullable ProjectInformation info) {
+    if (info == null || info.getCeStatus() == null) {
+      return false;
+    }
+    String ceStatus = info.getCeStatus();
+    return "success".equals(ceStatus) || "failed".equals(ceStatus) || "canceled".equals(ceStatus);
+  }
+
+  private static final class Entry {
+    private final ProjectInformation info;
+    private final long loadedAt;
+
+    private Entry(@Nullable ProjectInformation info, long loadedAt) {
+      this.info = info;
+      this.loadedAt = loadedAt;
+    }
+
+    private boolean isTerminal() {
+      return QualityGateCache.isTerminal(info);
+    }
+
+    private boolean isStale(long now) {
+      if (isTerminal()) {
+        return false;
+      }
+      boolean pending = info != null && ("pending".equals(info.getCeStatus()) || "in_progress".equals(info.getCeStatus()));
+      return now - loadedAt >= (pending ? PENDING_REFRESH_NANOS : REFRESH_NANOS);
+    }
+
+    private int weight() {
+      if (info == null) {
+        return 16;
+      }
+      int weight = 64 + length(info.getProjectName()) + length(info.getUrl()) + length(info.getCeUrl()) + length(info.getStatus());
+      String[] errors = info.getErrors();
+      if (errors != null) {
+        for (String error : errors) {
+          weight += length(error);
+        }
+      }
+      return weight;
+    }
+
+    private static int length(@Nullable String s) {
+      return s != null ? 2 * s.length() : 0;
+    }
+  }
+
+  private static final class Key {
+    private final String serverUrl;
+    private final String ceTaskId;
+
+    private Key(String serverUrl, String ceTaskId) {
+      this.serverUrl = serverUrl;
+      this.ceTaskId = ceTaskId;
+    }
+
+    private int weight() {
+      return 2 * (serverUrl.length() + ceTaskId.length());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return serverUrl.equals(other.serverUrl) && ceTaskId.equals(other.ceTaskId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(serverUrl, ceTaskId);
+    }
+  }
+}
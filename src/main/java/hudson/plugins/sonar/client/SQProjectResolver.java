@@ -23,18 +23,58 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.Run;
 import hudson.plugins.sonar.SonarInstallation;
-import hudson.plugins.sonar.client.WsClient.CETask;
 import hudson.plugins.sonar.utils.Logger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang3.StringUtils;
 import org.sonarqube.ws.client.HttpException;
 
 public class SQProjectResolver {
+  private static final int MAX_REQUESTS_PER_SERVER = SystemProperties.getInteger(SQProjectResolver.class.getName() + ".maxRequestsPerServer", 4);
+
+  /**
+   * Shared by all resolvers, so that a single SonarQube server never gets more than {@link #MAX_REQUESTS_PER_SERVER}
+   * concurrent requests from this Jenkins
+   */
+  private static final ConcurrentMap<String, ServerRequestLimiter> LIMITER_BY_SERVER = new ConcurrentHashMap<>();
+
   private final HttpClient client;
 
   public SQProjectResolver(HttpClient client) {
     this.client = client;
   }
 
+  /**
+   * Resolves the quality gates of several analyses of a build at once, see {@link #resolve(String, String, String, String, Run)}.
+   * Analyses are resolved concurrently, with at most {@code maxRequestsPerServer} requests in flight per SonarQube server,
+   * and an analysis that appears several times is only resolved once.
+   *
+   * @return the quality gates, in the same order as {@code analyses}, null for those that couldn't be resolved
+   */
+  public List<ProjectInformation> resolveAll(List<Analysis> analyses, Run<?, ?> build) {
+    Map<String, CompletableFuture<ProjectInformation>> byTask = new LinkedHashMap<>();
+    List<CompletableFuture<ProjectInformation>> futures = new ArrayList<>(analyses.size());
+    for (Analysis a : analyses) {
+      futures.add(byTask.computeIfAbsent(a.serverUrl + " " + a.ceTaskId,
+        k -> resolveAsync(a.serverUrl, a.projectDashboardUrl, a.ceTaskId, a.installationName, build)));
+    }
+    List<ProjectInformation> result = new ArrayList<>(futures.size());
+    for (CompletableFuture<ProjectInformation> f : futures) {
+      result.add(f.join());
+    }
+    return result;
+  }
+
   /**
    * Resolve information concerning the quality gate.
    * Might return null if it's not possible to fetch it, which should be interpreted as 'nothing to display'.
@@ -42,55 +82,142 @@ public class SQProjectResolver {
    */
   @CheckForNull
   public ProjectInformation resolve(@Nullable String serverUrl, @Nullable String projectDashboardUrl, String ceTaskId, String installationName, Run<?, ?> build) {
+    return resolveAsync(serverUrl, projectDashboardUrl, ceTaskId, installationName, build).join();
+  }
+
+  /**
+   * Same as {@link #resolve(String, String, String, String, Run)}, without waiting for SonarQube.
+   * The returned future never completes exceptionally.
+   */
+  public CompletableFuture<ProjectInformation> resolveAsync(@Nullable String serverUrl, @Nullable String projectDashboardUrl, String ceTaskId,
+    String installationName, Run<?, ?> build) {
     SonarInstallation inst = SonarInstallation.get(installationName);
     if (inst == null) {
       Logger.LOG.info(() -> "Invalid installation name: " + installationName);
-      return null;
+      return CompletableFuture.completedFuture(null);
     }
     if (serverUrl == null) {
       Logger.LOG.info("No server url.");
-      return null;
+      return CompletableFuture.completedFuture(null);
     }
 
     // provided by SonarQubeWebHook
     ProjectInformation action = build.getAction(ProjectInformation.class);
     if (action != null) {
-      return action;
+      return CompletableFuture.completedFuture(action);
     }
 
+    CompletableFuture<ProjectInformation> projectInfo;
     try {
       String serverAuthenticationToken = inst.getServerAuthenticationToken(build);
-      WsClient wsClient = new WsClient(client, serverUrl, serverAuthenticationToken);
+      projectInfo = fetchAsync(serverUrl, serverAuthenticationToken, ceTaskId);
+    } catch (Exception e) {
+      projectInfo = CompletableFuture.failedFuture(e);
+    }
+    return projectInfo.handle((proj, e) -> {
+      if (e != null) {
+        logError(unwrap(e));
+        return null;
+      }
+      proj.setUrl(projectDashboardUrl);
+      return proj;
+    });
+  }
 
-      ProjectInformation projectInfo = new ProjectInformation();
-      projectInfo.setUrl(projectDashboardUrl);
-      String analysisId = requestCETaskDetails(wsClient, projectInfo, ceTaskId);
+  private static void logError(Throwable e) {
+    if (e instanceof HttpException && ((HttpException) e).code() == 404) {
+      Logger.LOG.log(Level.FINE, "Error fetching project information: {0}", e.getMessage());
+    } else {
+      Logger.LOG.log(Level.WARNING, "Error fetching project information", e);
+    }
+  }
 
-      if (analysisId != null) {
-        projectInfo.setStatus(wsClient.requestQualityGateStatus(analysisId));
+  /**
+   * Fetches the CE task and, once it is finished, its quality gate status.
+   * Unlike {@link #resolve(String, String, String, String, Run)}, errors are thrown.
+   */
+  public ProjectInformation fetch(String serverUrl, @Nullable String token, String ceTaskId) throws InterruptedException {
+    CompletableFuture<ProjectInformation> future = fetchAsync(serverUrl, token, ceTaskId);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
       }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Same as {@link #fetch(String, String, String)}, without blocking: the requests are run by the HTTP client
+   */
+  public CompletableFuture<ProjectInformation> fetchAsync(String serverUrl, @Nullable String token, String ceTaskId) {
+    WsClient wsClient = new WsClient(client, serverUrl, token);
+    ServerRequestLimiter limiter = LIMITER_BY_SERVER.computeIfAbsent(StringUtils.removeEnd(serverUrl, "/"),
+      k -> new ServerRequestLimiter(MAX_REQUESTS_PER_SERVER));
 
-      return projectInfo;
+    CompletableFuture<WsClient.CETask> ceTaskRequest = limiter.submit(() -> wsClient.getCETaskAsync(ceTaskId));
+    AtomicReference<CompletableFuture<String>> statusRequest = new AtomicReference<>();
+    CompletableFuture<ProjectInformation> result = ceTaskRequest.thenCompose(ceTask -> {
+      ProjectInformation projectInfo = new ProjectInformation();
+      projectInfo.setCeStatus(ceTask.getStatus());
+      projectInfo.setCeUrl(ceTask.getUrl());
+      projectInfo.setName(ceTask.getComponentName());
 
-    } catch (HttpException e) {
-      if (e.code() == 404) {
-        Logger.LOG.log(Level.FINE, "Error fetching project information: {0}", e.getMessage());
-      } else {
-        Logger.LOG.log(Level.WARNING, "Error fetching project information", e);
+      String analysisId = ceTask.getAnalysisId();
+      if (analysisId == null) {
+        return CompletableFuture.completedFuture(projectInfo);
       }
-      return null;
-    } catch (Exception e) {
-      Logger.LOG.log(Level.WARNING, "Error fetching project information", e);
-      return null;
-    }
+      CompletableFuture<String> status = limiter.submit(() -> wsClient.requestQualityGateStatusAsync(analysisId));
+      statusRequest.set(status);
+      return status.thenApply(s -> {
+        projectInfo.setStatus(s);
+        return projectInfo;
+      });
+    });
+    // cancelling the result cancels the request in flight
+    result.whenComplete((p, e) -> {
+      if (result.isCancelled()) {
+        ceTaskRequest.cancel(true);
+        CompletableFuture<String> status = statusRequest.get();
+        if (status != null) {
+          status.cancel(true);
+        }
+      }
+    });
+    return result;
   }
 
-  @CheckForNull
-  private static String requestCETaskDetails(WsClient wsClient, ProjectInformation projectInfo, String ceTaskId) {
-    CETask ceTask = wsClient.getCETask(ceTaskId);
-    projectInfo.setCeStatus(ceTask.getStatus());
-    projectInfo.setCeUrl(ceTask.getUrl());
-    projectInfo.setName(ceTask.getComponentName());
-    return ceTask.getAnalysisId();
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  /**
+   * An analysis whose quality gate is to be resolved, see {@link #resolveAll(List, Run)}
+   */
+  public static final class Analysis {
+    private final String serverUrl;
+    private final String projectDashboardUrl;
+    private final String ceTaskId;
+    private final String installationName;
+
+    public Analysis(String serverUrl, @Nullable String projectDashboardUrl, String ceTaskId, String installationName) {
+      this.serverUrl = serverUrl;
+      this.projectDashboardUrl = projectDashboardUrl;
+      this.ceTaskId = ceTaskId;
+      this.installationName = installationName;
+    }
+
+    public String getServerUrl() {
+      return serverUrl;
+    }
+
+    public String getCeTaskId() {
+      return ceTaskId;
+    }
   }
 }
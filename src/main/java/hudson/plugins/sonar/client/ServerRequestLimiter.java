@@ -0,0 +1,135 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of asynchronous requests in flight to a server. Requests above the limit are queued and started
+ * when a running one completes, so that no thread waits for a permit.
+ */
+final class ServerRequestLimiter {
+  private final int maxConcurrentRequests;
+  private final Deque<Request<?>> waiting = new ArrayDeque<>();
+  private int running;
+
+  ServerRequestLimiter(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * @return the result of the request. Cancelling it cancels the request, whether it is waiting or in flight.
+   */
+  <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+    Request<T> r = new Request<>(request);
+    synchronized (this) {
+      if (running >= maxConcurrentRequests) {
+        waiting.add(r);
+        return r.result;
+      }
+      running++;
+    }
+    if (!r.start()) {
+      release();
+    }
+    return r.result;
+  }
+
+  /**
+   * Gives the permit of a completed request to the next waiting one, in a loop rather than recursively, since waiting
+   * requests may have been cancelled or may complete at once.
+   */
+  private void release() {
+    while (true) {
+      Request<?> next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          running--;
+          return;
+        }
+      }
+      if (next.start()) {
+        return;
+      }
+    }
+  }
+
+  synchronized int running() {
+    return running;
+  }
+
+  synchronized int waiting() {
+    return waiting.size();
+  }
+
+  private final class Request<T> {
+    private static final int STARTING = 0;
+    private static final int STARTED = 1;
+    private static final int COMPLETED_WHILE_STARTING = 2;
+
+    private final Supplier<CompletableFuture<T>> supplier;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final AtomicInteger state = new AtomicInteger(STARTING);
+
+    private Request(Supplier<CompletableFuture<T>> supplier) {
+      this.supplier = supplier;
+    }
+
+    /**
+     * @return true if the request is in flight and will release its permit when it completes, false if the permit
+     * is to be released by the caller
+     */
+    private boolean start() {
+      if (result.isDone()) {
+        // cancelled while waiting
+        return false;
+      }
+      CompletableFuture<T> inFlight;
+      try {
+        inFlight = supplier.get();
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+        return false;
+      }
+      result.whenComplete((value, e) -> {
+        if (result.isCancelled()) {
+          inFlight.cancel(true);
+        }
+      });
+      inFlight.whenComplete((value, e) -> {
+        // when completed at once, the permit is released by the caller of start(), not from this stack
+        if (!state.compareAndSet(STARTING, COMPLETED_WHILE_STARTING)) {
+          release();
+        }
+        if (e != null) {
+          result.completeExceptionally(e);
+        } else {
+          result.complete(value);
+        }
+      });
+      return state.compareAndSet(STARTING, STARTED);
+    }
+  }
+}
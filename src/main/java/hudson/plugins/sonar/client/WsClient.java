@@ -19,71 +19,326 @@
  */
 package hudson.plugins.sonar.client;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.InvalidProtocolBufferException;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.utils.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import net.sf.json.JSONSerializer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import jenkins.util.SystemProperties;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
 import org.apache.commons.lang3.StringUtils;
+import org.sonarqube.ws.Ce;
+import org.sonarqube.ws.MediaTypes;
+import org.sonarqube.ws.Qualitygates;
 
 public class WsClient {
-  private static final String STATUS_ATTR = "status";
+  private static final String TASK_STATUS = "task.status";
+  private static final String TASK_COMPONENT_NAME = "task.componentName";
+  private static final String TASK_COMPONENT_KEY = "task.componentKey";
+  private static final String TASK_ANALYSIS_ID = "task.analysisId";
+  private static final String PROJECT_STATUS = "projectStatus.status";
+  private static final String ACTIVITY_TASKS = "tasks";
+  private static final String ACTIVITY_TASK_ID = "id";
+  private static final String ACTIVITY_TASK_STATUS = "status";
+  private static final String ACTIVITY_TASK_COMPONENT_NAME = "componentName";
+  private static final String ACTIVITY_TASK_COMPONENT_KEY = "componentKey";
+  private static final String ACTIVITY_TASK_ANALYSIS_ID = "analysisId";
+  private static final Set<String> ACTIVITY_TASK_FIELDS = Set.of(ACTIVITY_TASK_ID, ACTIVITY_TASK_STATUS, ACTIVITY_TASK_COMPONENT_NAME,
+    ACTIVITY_TASK_COMPONENT_KEY, ACTIVITY_TASK_ANALYSIS_ID);
+  private static final String ACTIVITY_TOTAL = "paging.total";
   public static final String API_PROJECT_STATUS_WITH_ANALYSISID = "/api/qualitygates/project_status?analysisId=";
   public static final String API_VERSION = "/api/server/version";
   public static final String API_CE_TASK = "/api/ce/task?id=";
+  public static final String API_CE_ACTIVITY = "/api/ce/activity?status=SUCCESS,FAILED,CANCELED&ps=";
+  /**
+   * Maximum page size of /api/ce/activity
+   */
+  public static final int MAX_ACTIVITY_PAGE_SIZE = 1000;
+  private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ").withZone(ZoneOffset.UTC);
+  /**
+   * Maximum duration of asynchronous requests, including reading the response
+   */
+  static final Duration ASYNC_TIMEOUT = Duration.ofSeconds(SystemProperties.getLong(WsClient.class.getName() + ".asyncTimeoutSeconds", 30L));
+  /**
+   * Ask for protobuf rather than JSON responses to the compute engine task and quality gate status requests, which are
+   * smaller and cheaper to decode
+   */
+  private static final boolean PROTOBUF = SystemProperties.getBoolean(WsClient.class.getName() + ".protobuf");
+  /**
+   * Servers which answered a protobuf request with JSON, or with something that couldn't be decoded
+   */
+  private static final Set<String> NO_PROTOBUF_SERVERS = ConcurrentHashMap.newKeySet();
 
   private final HttpClient client;
   private final String serverUrl;
   private final String token;
+  private final boolean protobuf;
 
   public WsClient(HttpClient client, String serverUrl, @Nullable String token) {
+    this(client, serverUrl, token, PROTOBUF);
+  }
+
+  @VisibleForTesting
+  WsClient(HttpClient client, String serverUrl, @Nullable String token, boolean protobuf) {
     this.client = client;
     this.serverUrl = StringUtils.removeEnd(serverUrl, "/");
     this.token = token;
+    this.protobuf = protobuf;
   }
 
   public CETask getCETask(String taskId) {
     String url = serverUrl + API_CE_TASK + taskId;
-    String text = client.getHttp(url, token);
-    try {
-      JSONObject json = (JSONObject) JSONSerializer.toJSON(text);
-      JSONObject task = json.getJSONObject("task");
+    return get(url, body -> readCETask(url, body), in -> readCETask(url, in));
+  }
 
-      String status = task.getString(STATUS_ATTR);
-      String componentName = task.getString("componentName");
-      String componentKey = task.getString("componentKey");
-      // No analysisId if task is pending
-      String analysisId = task.optString("analysisId", null);
-      return new CETask(status, componentName, componentKey, url, analysisId);
-    } catch (JSONException e) {
-      throw new IllegalStateException("Unable to parse response from " + url + ":\n" + text, e);
+  public CompletableFuture<CETask> getCETaskAsync(String taskId) {
+    String url = serverUrl + API_CE_TASK + taskId;
+    return getAsync(url, body -> readCETask(url, body), in -> readCETask(url, in));
+  }
+
+  private static CETask readCETask(String url, InputStream in) throws IOException {
+    Ce.Task task = Ce.TaskResponse.parseFrom(in).getTask();
+    if (!task.hasStatus() || !task.hasComponentName() || !task.hasComponentKey()) {
+      throw new IllegalStateException("Unable to parse response from " + url + ": incomplete task");
     }
+    // No analysisId if task is pending
+    String analysisId = task.hasAnalysisId() ? task.getAnalysisId() : null;
+    return new CETask(task.getStatus().name(), task.getComponentName(), task.getComponentKey(), url, analysisId);
+  }
 
+  private static CETask readCETask(String url, Reader body) throws IOException {
+    Map<String, String> fields = readFields(url, body, TASK_STATUS, TASK_COMPONENT_NAME, TASK_COMPONENT_KEY, TASK_ANALYSIS_ID);
+    String status = required(url, fields, TASK_STATUS);
+    String componentName = required(url, fields, TASK_COMPONENT_NAME);
+    String componentKey = required(url, fields, TASK_COMPONENT_KEY);
+    // No analysisId if task is pending
+    String analysisId = fields.get(TASK_ANALYSIS_ID);
+    return new CETask(status, componentName, componentKey, url, analysisId);
   }
 
   public String requestQualityGateStatus(String analysisId) {
     String url = serverUrl + API_PROJECT_STATUS_WITH_ANALYSISID + encode(analysisId);
-    String text = client.getHttp(url, token);
+    return get(url, body -> readQualityGateStatus(url, body), in -> readQualityGateStatus(url, in));
+  }
+
+  public CompletableFuture<String> requestQualityGateStatusAsync(String analysisId) {
+    String url = serverUrl + API_PROJECT_STATUS_WITH_ANALYSISID + encode(analysisId);
+    return getAsync(url, body -> readQualityGateStatus(url, body), in -> readQualityGateStatus(url, in));
+  }
+
+  private static String readQualityGateStatus(String url, Reader body) throws IOException {
+    return required(url, readFields(url, body, PROJECT_STATUS), PROJECT_STATUS);
+  }
+
+  private static String readQualityGateStatus(String url, InputStream in) throws IOException {
+    Qualitygates.ProjectStatusResponse.ProjectStatus projectStatus = Qualitygates.ProjectStatusResponse.parseFrom(in).getProjectStatus();
+    if (!projectStatus.hasStatus()) {
+      throw new IllegalStateException("Unable to parse response from " + url + ": missing status");
+    }
+    return projectStatus.getStatus().name();
+  }
+
+  private boolean useProtobuf() {
+    return protobuf && !NO_PROTOBUF_SERVERS.contains(serverUrl);
+  }
+
+  private <T> T get(String url, HttpClient.ResponseReader<T> json, ProtobufReader<T> decoder) {
+    if (useProtobuf()) {
+      try {
+        return client.getHttp(url, token, MediaTypes.PROTOBUF, body -> readProtobufOrJson(url, body, json, decoder));
+      } catch (ProtobufDecodingException e) {
+        disableProtobuf(e);
+      }
+    }
+    return client.getHttp(url, token, json);
+  }
+
+  private <T> CompletableFuture<T> getAsync(String url, HttpClient.ResponseReader<T> json, ProtobufReader<T> decoder) {
+    Supplier<CompletableFuture<T>> jsonRequest = () -> client.getHttpAsync(url, token, ASYNC_TIMEOUT, json);
+    if (!useProtobuf()) {
+      return jsonRequest.get();
+    }
+
+    CompletableFuture<T> request = client.getHttpAsync(url, token, ASYNC_TIMEOUT, MediaTypes.PROTOBUF, body -> readProtobufOrJson(url, body, json, decoder));
+    CompletableFuture<T> result = new CompletableFuture<>();
+    request.whenComplete((value, e) -> {
+      Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+      if (cause instanceof ProtobufDecodingException) {
+        disableProtobuf((ProtobufDecodingException) cause);
+        CompletableFuture<T> retry = jsonRequest.get();
+        result.whenComplete((r, x) -> {
+          if (result.isCancelled()) {
+            retry.cancel(true);
+          }
+        });
+        retry.whenComplete((r, x) -> complete(result, r, x));
+      } else {
+        complete(result, value, e);
+      }
+    });
+    result.whenComplete((r, e) -> {
+      if (result.isCancelled()) {
+        request.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  private static <T> void complete(CompletableFuture<T> future, @Nullable T value, @Nullable Throwable e) {
+    if (e != null) {
+      future.completeExceptionally(e);
+    } else {
+      future.complete(value);
+    }
+  }
+
+  private <T> T readProtobufOrJson(String url, ResponseBody body, HttpClient.ResponseReader<T> json, ProtobufReader<T> decoder) throws IOException {
+    MediaType contentType = body.contentType();
+    if (contentType != null && MediaTypes.PROTOBUF.equals(contentType.type() + "/" + contentType.subtype())) {
+      try (InputStream in = body.byteStream()) {
+        return decoder.read(in);
+      } catch (InvalidProtocolBufferException e) {
+        throw new ProtobufDecodingException(url, e);
+      }
+    }
+    // the server, or a proxy in front of it, ignored the Accept header
+    if (NO_PROTOBUF_SERVERS.add(serverUrl)) {
+      Logger.LOG.info(() -> "SonarQube server " + serverUrl + " doesn't answer with protobuf, using JSON");
+    }
+    return json.read(body.charStream());
+  }
+
+  private void disableProtobuf(ProtobufDecodingException e) {
+    if (NO_PROTOBUF_SERVERS.add(serverUrl)) {
+      Logger.LOG.log(Level.WARNING, "Unable to decode protobuf response of SonarQube server " + serverUrl + ", using JSON", e);
+    }
+  }
+
+  @VisibleForTesting
+  static void resetProtobufSupport() {
+    NO_PROTOBUF_SERVERS.clear();
+  }
+
+  /**
+   * Only reads the response up to the wanted fields: the conditions of a quality gate, which can be long, are usually
+   * after its status.
+   */
+  private static Map<String, String> readFields(String url, Reader body, String... paths) throws IOException {
     try {
-      JSONObject json = (JSONObject) JSONSerializer.toJSON(text);
-      JSONObject projectStatus = json.getJSONObject("projectStatus");
+      return JsonFieldReader.read(body, paths);
+    } catch (JsonFieldReader.MalformedJsonException e) {
+      throw new IllegalStateException("Unable to parse response from " + url + ": " + e.getMessage(), e);
+    }
+  }
 
-      return projectStatus.getString(STATUS_ATTR);
-    } catch (JSONException e) {
-      throw new IllegalStateException("Unable to parse response from " + url + ":\n" + text, e);
+  private static String required(String url, Map<String, String> fields, String path) {
+    String value = fields.get(path);
+    if (value == null) {
+      throw new IllegalStateException("Unable to parse response from " + url + ": missing " + path);
     }
+    return value;
   }
 
   public String getServerVersion() {
     return client.getHttp(serverUrl + API_VERSION, null);
   }
 
+  public CompletableFuture<String> getServerVersionAsync() {
+    return client.getHttpAsync(serverUrl + API_VERSION, null, ASYNC_TIMEOUT);
+  }
+
+  /**
+   * Finished compute engine tasks submitted since the given time, visible to the token. Requires the 'Administer'
+   * permission: the server answers 403 otherwise.
+   */
+  public CompletableFuture<CEActivity> getFinishedCETasksAsync(Instant minSubmittedAt) {
+    String url = serverUrl + API_CE_ACTIVITY + MAX_ACTIVITY_PAGE_SIZE + "&minSubmittedAt=" + encode(DATE_TIME.format(minSubmittedAt));
+    return client.getHttpAsync(url, token, ASYNC_TIMEOUT, body -> readActivity(url, body));
+  }
+
+  private CEActivity readActivity(String url, Reader body) throws IOException {
+    Map<String, CETask> tasksById = new HashMap<>();
+    Map<String, String> fields;
+    try {
+      fields = JsonFieldReader.read(body, ACTIVITY_TASKS, ACTIVITY_TASK_FIELDS, task -> {
+        String id = required(url, task, ACTIVITY_TASK_ID);
+        // No analysisId if the task failed before the analysis was stored
+        tasksById.put(id, new CETask(required(url, task, ACTIVITY_TASK_STATUS), required(url, task, ACTIVITY_TASK_COMPONENT_NAME),
+          required(url, task, ACTIVITY_TASK_COMPONENT_KEY), serverUrl + API_CE_TASK + id, task.get(ACTIVITY_TASK_ANALYSIS_ID)));
+      }, ACTIVITY_TOTAL);
+    } catch (JsonFieldReader.MalformedJsonException e) {
+      throw new IllegalStateException("Unable to parse response from " + url + ": " + e.getMessage(), e);
+    }
+    long count = parseLong(url, required(url, fields, ACTIVITY_TASKS), ACTIVITY_TASKS);
+    String total = fields.get(ACTIVITY_TOTAL);
+    return new CEActivity(tasksById, total == null || parseLong(url, total, ACTIVITY_TOTAL) <= count);
+  }
+
+  private static long parseLong(String url, String value, String path) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Unable to parse response from " + url + ": invalid " + path, e);
+    }
+  }
+
   private static String encode(String param) {
     return URLEncoder.encode(param, StandardCharsets.UTF_8);
   }
 
+  @FunctionalInterface
+  private interface ProtobufReader<T> {
+    T read(InputStream in) throws IOException;
+  }
+
+  private static class ProtobufDecodingException extends RuntimeException {
+    ProtobufDecodingException(String url, InvalidProtocolBufferException cause) {
+      super("Unable to parse response from " + url, cause);
+    }
+  }
+
+  public static class CEActivity {
+    private final Map<String, CETask> tasks;
+    private final boolean complete;
+
+    public CEActivity(Map<String, CETask> tasks, boolean complete) {
+      this.tasks = tasks;
+      this.complete = complete;
+    }
+
+    /**
+     * @return tasks indexed by id
+     */
+    public Map<String, CETask> getTasks() {
+      return tasks;
+    }
+
+    /**
+     * @return false if more tasks matched than could be returned in a single page
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+  }
+
   public static class CETask {
 
     public static final String STATUS_SUCCESS = "SUCCESS";
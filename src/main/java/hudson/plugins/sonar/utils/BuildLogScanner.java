@@ -0,0 +1,138 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import hudson.console.AnnotatedLargeText;
+import hudson.model.Run;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Looks for a literal in the tail of a build log without loading the log in memory.
+ * Only the last bytes of the log (up to a budget) are read, in fixed-size chunks, and the scan stops at the first match.
+ * The tail of a compressed log can't be found without decompressing all of it, so only its first bytes are read.
+ */
+public final class BuildLogScanner {
+  private static final int CHUNK_SIZE = 8 * 1024;
+
+  private BuildLogScanner() {
+    // only static
+  }
+
+  public static boolean tailContains(Run<?, ?> build, String literal, long byteBudget) throws IOException {
+    Charset charset = build.getCharset() != null ? build.getCharset() : StandardCharsets.UTF_8;
+    byte[] pattern = literal.getBytes(charset);
+    long length = logLength(build);
+
+    try (InputStream in = build.getLogInputStream()) {
+      if (length > byteBudget) {
+        skipFully(in, length - byteBudget);
+      }
+      return contains(in, pattern, byteBudget);
+    }
+  }
+
+  /**
+   * Reads at most {@code byteBudget} bytes from the stream, keeping only one chunk (plus the pattern length) in memory.
+   */
+  static boolean contains(InputStream in, byte[] pattern, long byteBudget) throws IOException {
+    if (pattern.length == 0) {
+      return true;
+    }
+    byte[] buffer = new byte[CHUNK_SIZE + pattern.length];
+    int carry = 0;
+    long remaining = byteBudget;
+
+    while (remaining > 0) {
+      int read = in.read(buffer, carry, (int) Math.min(CHUNK_SIZE, remaining));
+      if (read < 0) {
+        break;
+      }
+      remaining -= read;
+      int end = carry + read;
+      if (indexOf(buffer, end, pattern) >= 0) {
+        return true;
+      }
+      // keep the end of the chunk, in case the pattern straddles two chunks
+      carry = Math.min(pattern.length - 1, end);
+      System.arraycopy(buffer, end - carry, buffer, 0, carry);
+    }
+    return false;
+  }
+
+  static int indexOf(byte[] buffer, int end, byte[] pattern) {
+    byte first = pattern[0];
+    int max = end - pattern.length;
+    for (int i = 0; i <= max; i++) {
+      if (buffer[i] != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < pattern.length && buffer[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static long logLength(Run<?, ?> build) {
+    if (isCompressed(build)) {
+      // the length on disk is the compressed one, while the stream is decompressed: it can't tell where the tail starts
+      return -1;
+    }
+    AnnotatedLargeText<?> logText = build.getLogText();
+    // unknown length: the log will be read from its beginning, still within the budget
+    return logText != null ? logText.length() : -1;
+  }
+
+  /**
+   * Same lookup as {@link Run#getLogFile()}, which is deprecated for pipelines: the log is compressed when there is only
+   * a {@code log.gz}.
+   */
+  private static boolean isCompressed(Run<?, ?> build) {
+    File rootDir = build.getRootDir();
+    return rootDir != null && !new File(rootDir, "log").exists() && new File(rootDir, "log.gz").exists();
+  }
+
+  private static void skipFully(InputStream in, long toSkip) throws IOException {
+    long remaining = toSkip;
+    byte[] scratch = null;
+    while (remaining > 0) {
+      long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        // some streams can't skip: fall back to reading
+        if (scratch == null) {
+          scratch = new byte[CHUNK_SIZE];
+        }
+        skipped = in.read(scratch, 0, (int) Math.min(scratch.length, remaining));
+        if (skipped < 0) {
+          return;
+        }
+      }
+      remaining -= skipped;
+    }
+  }
+}
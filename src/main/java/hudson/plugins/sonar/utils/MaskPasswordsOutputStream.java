@@ -19,73 +19,204 @@
  */
 package hudson.plugins.sonar.utils;
 
-import hudson.console.LineTransformationOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.regex.Pattern;
-import org.apache.commons.lang.StringUtils;
+import java.util.Deque;
 
 /**
- * Class adapted from the mask-passwords plugin
+ * Class adapted from the mask-passwords plugin.
+ * <p>
+ * The output is searched for the passwords as bytes, encoded with the charset of the console, as it is written: bytes
+ * are written through as soon as they can't be the beginning of a password, and only the last bytes which may be
+ * are kept, no more than the length of the longest password. Lines of any length, and passwords split between several
+ * writes, are masked with constant memory.
+ * <p>
+ * A password found is not masked right away when it may be the end of a longer one, which started before it: its
+ * bytes are masked once no longer password can cover the bytes before it. Overlapping passwords are masked with a
+ * single replacement.
  */
-public class MaskPasswordsOutputStream extends LineTransformationOutputStream {
-  private static final String REPLACEMENT = "******";
-  private static final String URL_IN_LOGS = "ANALYSIS SUCCESSFUL, you can browse ";
+public class MaskPasswordsOutputStream extends OutputStream {
   private final OutputStream logger;
-  private final Pattern passwordsAsPattern;
-  private final Charset charset;
+  private final PasswordMatcher matcher;
+  private final PasswordMatcher urlMatcher;
+  private final byte[] replacement;
+  /**
+   * End of the bytes written but not output yet, which may be the beginning of a password
+   */
+  private final byte[] window;
+  private int windowLength;
+  private final byte[] singleByte = new byte[1];
+  private int state = PasswordMatcher.initialState();
+  private int urlState = PasswordMatcher.initialState();
+  /**
+   * Whether the current line is not masked, see {@link PasswordMasker#urlMatcher()}
+   */
+  private boolean unmaskedLine;
+  /**
+   * Number of bytes written so far, and number of those output or masked
+   */
+  private long position;
+  private long emitted;
+  /**
+   * Passwords found among the bytes not output yet, merged when they overlap, in order
+   */
+  private final Deque<Masked> masked = new ArrayDeque<>();
 
   public MaskPasswordsOutputStream(OutputStream logger, Charset charset, Collection<String> passwords) {
+    this(logger, PasswordMasker.of(passwords, charset));
+  }
 
+  public MaskPasswordsOutputStream(OutputStream logger, PasswordMasker masker) {
     this.logger = logger;
-    this.charset = charset;
-
-    if (!passwords.isEmpty()) {
+    this.matcher = masker.matcher();
+    this.urlMatcher = masker.urlMatcher();
+    this.replacement = masker.replacement();
+    this.window = new byte[matcher.maxLength()];
+  }
 
-      // passwords are aggregated into a regex which is compiled as a pattern
-      // for efficiency
-      StringBuilder regex = new StringBuilder().append('(');
+  @Override
+  public void write(int b) throws IOException {
+    singleByte[0] = (byte) b;
+    write(singleByte, 0, 1);
+  }
 
-      int nbMaskedPasswords = 0;
-      for (String password : passwords) {
-        // we must not handle empty passwords
-        if (StringUtils.isNotEmpty(password)) {
-          regex.append(Pattern.quote(password));
-          regex.append('|');
-          nbMaskedPasswords++;
+  @Override
+  public void write(byte[] bytes, int off, int len) throws IOException {
+    if (matcher.isEmpty()) {
+      logger.write(bytes, off, len);
+      return;
+    }
+    // bytes not output yet are those of the window, followed by bytes[runStart, i]
+    int runStart = off;
+    for (int i = off; i < off + len; i++) {
+      byte b = bytes[i];
+      position++;
+      if (b == '\n') {
+        unmaskedLine = false;
+        urlState = PasswordMatcher.initialState();
+      } else if (!unmaskedLine) {
+        urlState = urlMatcher.next(urlState, b);
+        if (urlMatcher.matchLength(urlState) > 0) {
+          // the rest of the line is output as it is
+          unmaskedLine = true;
+          state = PasswordMatcher.initialState();
         }
       }
-      // is there at least one password to mask?
-      if (nbMaskedPasswords >= 1) {
-        // removes the last unuseful pipe
-        regex.deleteCharAt(regex.length() - 1);
-        regex.append(')');
-        passwordsAsPattern = Pattern.compile(regex.toString());
+      if (unmaskedLine) {
+        continue;
+      }
+
+      state = matcher.next(state, b);
+      int matchLength = matcher.matchLength(state);
+      if (matchLength > 0) {
+        mask(position - matchLength, position);
+        // only the bytes of a longer password being matched may still be masked
+        runStart = emit(bytes, runStart, position - matcher.depth(state));
+      }
+    }
+
+    int keep = unmaskedLine ? 0 : matcher.depth(state);
+    runStart = emit(bytes, runStart, position - keep);
+    // what is left is not longer than the longest password
+    int remaining = off + len - runStart;
+    System.arraycopy(bytes, runStart, window, windowLength, remaining);
+    windowLength += remaining;
+  }
+
+  /**
+   * Masks the password found, merging it with the previous ones it overlaps
+   */
+  private void mask(long start, long end) {
+    Masked merged = new Masked(start, end);
+    while (!masked.isEmpty() && masked.peekLast().end > start) {
+      Masked overlapped = masked.removeLast();
+      merged.start = Math.min(merged.start, overlapped.start);
+      merged.replaced = overlapped.replaced;
+    }
+    masked.addLast(merged);
+  }
+
+  /**
+   * Outputs the bytes not output yet until the given position, replacing the masked ones
+   *
+   * @return the new start of the bytes being written not output yet
+   */
+  private int emit(byte[] bytes, int runStart, long until) throws IOException {
+    while (emitted < until) {
+      Masked next = masked.peekFirst();
+      if (next == null || next.start >= until) {
+        runStart = take(bytes, runStart, (int) (until - emitted), true);
+      } else if (emitted < next.start) {
+        runStart = take(bytes, runStart, (int) (next.start - emitted), true);
       } else {
-        // no passwords to hide
-        passwordsAsPattern = null;
+        if (!next.replaced) {
+          logger.write(replacement);
+          next.replaced = true;
+        }
+        runStart = take(bytes, runStart, (int) (Math.min(next.end, until) - emitted), false);
+        if (next.end <= until) {
+          masked.removeFirst();
+        }
       }
-    } else {
-      // no passwords to hide
-      passwordsAsPattern = null;
     }
+    return runStart;
   }
 
-  @Override
-  protected void eol(byte[] bytes, int len) throws IOException {
-    String line = charset.decode(ByteBuffer.wrap(bytes, 0, len)).toString();
-    if (passwordsAsPattern != null && !line.contains(URL_IN_LOGS)) {
-      line = passwordsAsPattern.matcher(line).replaceAll(REPLACEMENT);
+  /**
+   * Outputs, or drops if masked, the first bytes not output yet, from the window and then from the bytes being written
+   *
+   * @return the new start of the bytes being written not output yet
+   */
+  private int take(byte[] bytes, int runStart, int count, boolean output) throws IOException {
+    int fromWindow = Math.min(count, windowLength);
+    if (fromWindow > 0) {
+      if (output) {
+        logger.write(window, 0, fromWindow);
+      }
+      System.arraycopy(window, fromWindow, window, 0, windowLength - fromWindow);
+      windowLength -= fromWindow;
+    }
+    int fromBytes = count - fromWindow;
+    if (fromBytes > 0 && output) {
+      logger.write(bytes, runStart, fromBytes);
     }
-    logger.write(line.getBytes(charset));
+    emitted += count;
+    return runStart + fromBytes;
+  }
+
+  /**
+   * The last bytes, which may be the beginning of a password, are kept until more bytes are written or the stream is
+   * closed
+   */
+  @Override
+  public void flush() throws IOException {
+    logger.flush();
   }
 
   @Override
   public void close() throws IOException {
-    super.close();
+    // all that is left is in the window
+    emit(window, 0, position);
     logger.close();
   }
+
+  /**
+   * Bytes of one or more overlapping passwords, masked with a single replacement
+   */
+  private static final class Masked {
+    private long start;
+    private final long end;
+    /**
+     * Whether the replacement is output, when the first bytes are
+     */
+    private boolean replaced;
+
+    private Masked(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
 }
@@ -0,0 +1,181 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import hudson.Util;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The passwords to mask in a console, compiled once into the automaton used by {@link MaskPasswordsOutputStream}.
+ * <p>
+ * Compiled maskers are cached by a fingerprint of the encoded passwords, so that the builds using the same credentials
+ * share them and decorating a logger costs no compilation. Only the encoded passwords are serialized: when a masker is
+ * sent to an agent, it is resolved against the cache of the agent, and compiled there at most once.
+ */
+public final class PasswordMasker implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final String REPLACEMENT = "******";
+  private static final String URL_IN_LOGS = "ANALYSIS SUCCESSFUL, you can browse ";
+  private static final Cache<String, PasswordMasker> COMPILED = Caffeine.newBuilder()
+    .maximumSize(100)
+    .expireAfterAccess(1, TimeUnit.HOURS)
+    .build();
+
+  private final String charset;
+  private final List<byte[]> sequences;
+  private final transient PasswordMatcher matcher;
+  private final transient PasswordMatcher urlMatcher;
+  private final transient byte[] replacement;
+
+  private PasswordMasker(Charset charset, List<byte[]> sequences) {
+    this.charset = charset.name();
+    this.sequences = sequences;
+    this.matcher = PasswordMatcher.compile(sequences);
+    this.urlMatcher = PasswordMatcher.compile(Collections.singletonList(URL_IN_LOGS.getBytes(charset)));
+    this.replacement = REPLACEMENT.getBytes(charset);
+  }
+
+  /**
+   * @param passwords empty passwords are ignored
+   */
+  public static PasswordMasker of(Collection<String> passwords, Charset charset) {
+    List<byte[]> encoded = new ArrayList<>();
+    for (String password : passwords) {
+      // we must not handle empty passwords
+      if (StringUtils.isNotEmpty(password)) {
+        for (String form : encodedForms(password)) {
+          encoded.add(form.getBytes(charset));
+        }
+      }
+    }
+    return cached(charset, encoded);
+  }
+
+  private static PasswordMasker cached(Charset charset, List<byte[]> sequences) {
+    return COMPILED.get(fingerprint(charset, sequences), k -> new PasswordMasker(charset, sequences));
+  }
+
+  private static String fingerprint(Charset charset, List<byte[]> sequences) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+    for (byte[] sequence : sequences) {
+      // lengths keep the sequences apart
+      digest.update(new byte[] {(byte) (sequence.length >>> 24), (byte) (sequence.length >>> 16), (byte) (sequence.length >>> 8), (byte) sequence.length});
+      digest.update(sequence);
+    }
+    return Util.toHexString(digest.digest());
+  }
+
+  /**
+   * The automaton is not serialized: it is found again, or compiled, from the fingerprint of what was received.
+   */
+  private Object readResolve() throws ObjectStreamException {
+    return cached(Charset.forName(charset), sequences);
+  }
+
+  /**
+   * Forms in which a password may be logged: as it is, escaped in JSON (like in {@code SONARQUBE_SCANNER_PARAMS}),
+   * URL-encoded, and as the Base64 basic authentication of a token (with {@code token:}, without the padding which
+   * depends on what follows). All of them are searched at once, at no extra cost per byte.
+   */
+  static Set<String> encodedForms(String password) {
+    Set<String> forms = new LinkedHashSet<>();
+    forms.add(password);
+    forms.add(escapeJson(password));
+    String urlEncoded = URLEncoder.encode(password, StandardCharsets.UTF_8);
+    forms.add(urlEncoded);
+    forms.add(urlEncoded.replace("+", "%20"));
+    forms.add(StringUtils.stripEnd(Base64.getEncoder().encodeToString((password + ":").getBytes(StandardCharsets.UTF_8)), "="));
+    return forms;
+  }
+
+  private static String escapeJson(String s) {
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.toString();
+  }
+
+  public OutputStream mask(OutputStream logger) {
+    return new MaskPasswordsOutputStream(logger, this);
+  }
+
+  PasswordMatcher matcher() {
+    return matcher;
+  }
+
+  /**
+   * Detects the line of the logs giving the URL of the analysis, which is not masked
+   */
+  PasswordMatcher urlMatcher() {
+    return urlMatcher;
+  }
+
+  byte[] replacement() {
+    return replacement;
+  }
+}
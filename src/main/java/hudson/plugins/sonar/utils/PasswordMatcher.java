@@ -0,0 +1,174 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds several byte sequences at once in a stream of bytes, with an Aho-Corasick automaton turned into a
+ * deterministic one: each byte costs a single table lookup, whatever the number of sequences.
+ * <p>
+ * Bytes are first mapped to classes, one per distinct byte of the sequences plus one for all the others, to keep the
+ * transition table small.
+ */
+final class PasswordMatcher {
+  private static final int ROOT = 0;
+
+  /**
+   * Class of each byte, 0 for bytes which are in none of the sequences
+   */
+  private final int[] classes;
+  private final int classCount;
+  /**
+   * Next state, indexed by state * classCount + class
+   */
+  private final int[] transitions;
+  /**
+   * Length of the longest sequence ending at each state, 0 if none
+   */
+  private final int[] matchLengths;
+  /**
+   * Number of bytes read to reach each state from the initial one, which may still be part of a sequence
+   */
+  private final int[] depths;
+  private final int maxLength;
+
+  private PasswordMatcher(int[] classes, int classCount, int[] transitions, int[] matchLengths, int[] depths, int maxLength) {
+    this.classes = classes;
+    this.classCount = classCount;
+    this.transitions = transitions;
+    this.matchLengths = matchLengths;
+    this.depths = depths;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * @param sequences empty sequences are ignored
+   */
+  static PasswordMatcher compile(Collection<byte[]> sequences) {
+    int[] classes = new int[256];
+    int classCount = 1;
+    for (byte[] sequence : sequences) {
+      for (byte b : sequence) {
+        if (classes[b & 0xFF] == 0) {
+          classes[b & 0xFF] = classCount++;
+        }
+      }
+    }
+
+    // trie
+    List<Map<Integer, Integer>> children = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    List<Integer> depths = new ArrayList<>();
+    children.add(new HashMap<>());
+    lengths.add(0);
+    depths.add(0);
+    int maxLength = 0;
+    for (byte[] sequence : sequences) {
+      if (sequence.length == 0) {
+        continue;
+      }
+      int state = ROOT;
+      for (byte b : sequence) {
+        int c = classes[b & 0xFF];
+        Integer next = children.get(state).get(c);
+        if (next == null) {
+          next = children.size();
+          children.add(new HashMap<>());
+          lengths.add(0);
+          depths.add(depths.get(state) + 1);
+          children.get(state).put(c, next);
+        }
+        state = next;
+      }
+      lengths.set(state, Math.max(lengths.get(state), sequence.length));
+      maxLength = Math.max(maxLength, sequence.length);
+    }
+
+    // breadth-first, so that the failure state of a state, being shallower, is complete when the state is reached
+    int stateCount = children.size();
+    int[] transitions = new int[stateCount * classCount];
+    int[] matchLengths = new int[stateCount];
+    int[] failures = new int[stateCount];
+    Queue<Integer> queue = new ArrayDeque<>();
+    queue.add(ROOT);
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      int failure = failures[state];
+      matchLengths[state] = Math.max(lengths.get(state), state == ROOT ? 0 : matchLengths[failure]);
+      for (int c = 0; c < classCount; c++) {
+        Integer child = children.get(state).get(c);
+        if (child != null) {
+          failures[child] = state == ROOT ? ROOT : transitions[failure * classCount + c];
+          transitions[state * classCount + c] = child;
+          queue.add(child);
+        } else {
+          transitions[state * classCount + c] = state == ROOT ? ROOT : transitions[failure * classCount + c];
+        }
+      }
+    }
+    return new PasswordMatcher(classes, classCount, transitions, matchLengths, depths.stream().mapToInt(Integer::intValue).toArray(), maxLength);
+  }
+
+  /**
+   * @return whether there is nothing to find
+   */
+  boolean isEmpty() {
+    return maxLength == 0;
+  }
+
+  /**
+   * @return length of the longest sequence
+   */
+  int maxLength() {
+    return maxLength;
+  }
+
+  /**
+   * @return the state before any byte is read
+   */
+  static int initialState() {
+    return ROOT;
+  }
+
+  int next(int state, byte b) {
+    return transitions[state * classCount + classes[b & 0xFF]];
+  }
+
+  /**
+   * @return length of the longest sequence ending with the last byte read to reach the state, 0 if none
+   */
+  int matchLength(int state) {
+    return matchLengths[state];
+  }
+
+  /**
+   * @return number of the last bytes read which may be the beginning of a sequence, and so can't be output yet
+   */
+  int depth(int state) {
+    return depths[state];
+  }
+}
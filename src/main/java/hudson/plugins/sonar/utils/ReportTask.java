@@ -0,0 +1,86 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static hudson.plugins.sonar.utils.SonarUtils.CE_TASK_ID_KEY;
+import static hudson.plugins.sonar.utils.SonarUtils.DASHBOARD_URL_KEY;
+import static hudson.plugins.sonar.utils.SonarUtils.SERVER_URL_KEY;
+
+/**
+ * The properties of a report task file, read where the file is and sent to the controller with the result of the
+ * lookup. The file is a few hundred bytes: all its properties are kept, for the callers of
+ * {@link SonarUtils#extractReportTask}.
+ */
+public final class ReportTask implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String path;
+  private final Properties properties;
+
+  private ReportTask(String path, Properties properties) {
+    this.path = path;
+    this.properties = properties;
+  }
+
+  static ReportTask read(String path, InputStream in) throws IOException {
+    Properties p = new Properties();
+    p.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+    return new ReportTask(path, p);
+  }
+
+  /**
+   * @return path of the file on the machine where it was read
+   */
+  public String getPath() {
+    return path;
+  }
+
+  @CheckForNull
+  public String getServerUrl() {
+    return properties.getProperty(SERVER_URL_KEY);
+  }
+
+  @CheckForNull
+  public String getDashboardUrl() {
+    return properties.getProperty(DASHBOARD_URL_KEY);
+  }
+
+  @CheckForNull
+  public String getCeTaskId() {
+    return properties.getProperty(CE_TASK_ID_KEY);
+  }
+
+  /**
+   * @return a copy of all the properties of the file
+   */
+  public Properties toProperties() {
+    Properties p = new Properties();
+    p.putAll(properties);
+    return p;
+  }
+}
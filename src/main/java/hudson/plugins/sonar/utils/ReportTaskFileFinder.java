@@ -0,0 +1,268 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang.StringUtils;
+
+import static hudson.plugins.sonar.utils.SonarUtils.REPORT_TASK_FILE_NAME;
+
+/**
+ * Locates the report task file(s) written by the scanners in a workspace, without following symlinks.
+ * Locations where the scanners write it by default are checked first. Only if none exists, or if those found are older
+ * than the build, the workspace is walked, skipping directories known to be large and irrelevant, up to a maximum
+ * depth and within a time budget. A file left in a default location by a previous build then doesn't hide the one
+ * written by the current analysis elsewhere, like in a subdirectory.
+ * <p>
+ * The most recently modified file is read on the agent too, so that a single call returns what the controller needs.
+ */
+public class ReportTaskFileFinder extends MasterToSlaveFileCallable<ReportTaskFileFinder.Result> {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Default working directories of SonarScanner CLI, SonarScanner for Maven and SonarScanner for .NET
+   */
+  static final List<String> WELL_KNOWN_LOCATIONS = Arrays.asList(
+    ".scannerwork/" + REPORT_TASK_FILE_NAME,
+    "target/sonar/" + REPORT_TASK_FILE_NAME,
+    ".sonarqube/out/.sonar/" + REPORT_TASK_FILE_NAME);
+
+  private static final String PROPERTY_PREFIX = ReportTaskFileFinder.class.getName();
+  private static final String DEFAULT_PRUNED_DIRECTORIES = ".git,.svn,.hg,CVS,node_modules,bower_components,.m2,.gradle,.npm,.yarn,.cache";
+
+  private final List<String> locations;
+  private final Set<String> prunedDirectories;
+  private final int maxDepth;
+  private final long timeBudgetMillis;
+  private final long notBefore;
+
+  /**
+   * @param workingDirectory value of 'sonar.working.directory' given to the scanner, if any. Checked before the default locations.
+   */
+  public ReportTaskFileFinder(@Nullable String workingDirectory) {
+    this(workingDirectory, 0L);
+  }
+
+  /**
+   * @param notBefore start time of the build: files in the default locations modified before are not trusted without
+   * walking the workspace. 0 trusts them all.
+   */
+  public ReportTaskFileFinder(@Nullable String workingDirectory, long notBefore) {
+    this(workingDirectory,
+      new HashSet<>(Arrays.asList(StringUtils.split(SystemProperties.getString(PROPERTY_PREFIX + ".prunedDirectories", DEFAULT_PRUNED_DIRECTORIES), ","))),
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".maxDepth", 12),
+      TimeUnit.SECONDS.toMillis(SystemProperties.getLong(PROPERTY_PREFIX + ".timeBudgetSeconds", 30L)), notBefore);
+  }
+
+  ReportTaskFileFinder(@Nullable String workingDirectory, Set<String> prunedDirectories, int maxDepth, long timeBudgetMillis) {
+    this(workingDirectory, prunedDirectories, maxDepth, timeBudgetMillis, 0L);
+  }
+
+  ReportTaskFileFinder(@Nullable String workingDirectory, Set<String> prunedDirectories, int maxDepth, long timeBudgetMillis, long notBefore) {
+    this.locations = new ArrayList<>();
+    if (StringUtils.isNotBlank(workingDirectory)) {
+      locations.add(StringUtils.removeEnd(workingDirectory.trim(), "/") + "/" + REPORT_TASK_FILE_NAME);
+    }
+    locations.addAll(WELL_KNOWN_LOCATIONS);
+    this.prunedDirectories = prunedDirectories;
+    this.maxDepth = maxDepth;
+    this.timeBudgetMillis = timeBudgetMillis;
+    this.notBefore = notBefore;
+  }
+
+  @Override
+  public Result invoke(File dir, VirtualChannel channel) throws IOException {
+    long start = System.currentTimeMillis();
+    Path root = dir.toPath();
+    if (!Files.isDirectory(root)) {
+      return new Result(Collections.emptyList(), null, System.currentTimeMillis() - start, false, false);
+    }
+
+    List<Path> found = findInWellKnownLocations(root);
+    // the agent's clock may differ from the controller's: at worst a current file is found again by the walk
+    if (!found.isEmpty() && Files.getLastModifiedTime(newest(found), LinkOption.NOFOLLOW_LINKS).toMillis() >= notBefore) {
+      return result(found, start, true, false);
+    }
+
+    Walker walker = new Walker(root, start + timeBudgetMillis);
+    Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, walker);
+    return result(walker.found, start, false, walker.timedOut);
+  }
+
+  private static Result result(List<Path> found, long start, boolean wellKnownLocation, boolean timedOut) throws IOException {
+    if (found.isEmpty()) {
+      return new Result(Collections.emptyList(), null, System.currentTimeMillis() - start, wellKnownLocation, timedOut);
+    }
+    Path newest = newest(found);
+    List<String> otherFiles = found.stream().filter(p -> !p.equals(newest)).map(Path::toString).collect(Collectors.toList());
+    return new Result(otherFiles, read(newest), System.currentTimeMillis() - start, wellKnownLocation, timedOut);
+  }
+
+  /**
+   * @return the most recently modified file, the first one found if several were modified at the same time
+   */
+  private static Path newest(List<Path> files) throws IOException {
+    Path newest = files.get(0);
+    FileTime newestTime = Files.getLastModifiedTime(newest, LinkOption.NOFOLLOW_LINKS);
+    for (Path file : files.subList(1, files.size())) {
+      FileTime time = Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS);
+      if (time.compareTo(newestTime) > 0) {
+        newest = file;
+        newestTime = time;
+      }
+    }
+    return newest;
+  }
+
+  private static ReportTask read(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS)) {
+      return ReportTask.read(file.toString(), in);
+    }
+  }
+
+  private List<Path> findInWellKnownLocations(Path root) {
+    Set<Path> found = new LinkedHashSet<>();
+    for (String location : locations) {
+      try {
+        Path candidate = root.resolve(location).normalize();
+        if (Files.isRegularFile(candidate, LinkOption.NOFOLLOW_LINKS)) {
+          found.add(candidate);
+        }
+      } catch (InvalidPathException e) {
+        // invalid working directory, ignore it
+      }
+    }
+    return new ArrayList<>(found);
+  }
+
+  private class Walker extends SimpleFileVisitor<Path> {
+    private final Path root;
+    private final long deadline;
+    private final List<Path> found = new ArrayList<>();
+    private boolean timedOut = false;
+
+    Walker(Path root, long deadline) {
+      this.root = root;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+      if (System.currentTimeMillis() > deadline) {
+        timedOut = true;
+        return FileVisitResult.TERMINATE;
+      }
+      if (!dir.equals(root) && prunedDirectories.contains(String.valueOf(dir.getFileName()))) {
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+      if (attrs.isRegularFile() && REPORT_TASK_FILE_NAME.equals(String.valueOf(file.getFileName()))) {
+        found.add(file);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+      // unreadable file or directory, just skip it
+      return FileVisitResult.CONTINUE;
+    }
+  }
+
+  public static class Result implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> otherFiles;
+    private final ReportTask reportTask;
+    private final long durationMillis;
+    private final boolean wellKnownLocation;
+    private final boolean timedOut;
+
+    Result(List<String> otherFiles, @Nullable ReportTask reportTask, long durationMillis, boolean wellKnownLocation, boolean timedOut) {
+      this.otherFiles = otherFiles;
+      this.reportTask = reportTask;
+      this.durationMillis = durationMillis;
+      this.wellKnownLocation = wellKnownLocation;
+      this.timedOut = timedOut;
+    }
+
+    /**
+     * @return paths of the files found besides the one read, on the machine of the workspace. Empty unless several
+     * files were found.
+     */
+    public List<String> getOtherFiles() {
+      return otherFiles;
+    }
+
+    /**
+     * @return the content of the most recently modified file, or null if none was found
+     */
+    @CheckForNull
+    public ReportTask getReportTask() {
+      return reportTask;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    public boolean isWellKnownLocation() {
+      return wellKnownLocation;
+    }
+
+    /**
+     * @return true if the time budget was exhausted before the whole workspace was walked
+     */
+    public boolean isTimedOut() {
+      return timedOut;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.Run;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Properties;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Copies the scanner output to the build log and, in the same pass, picks up what the scanner prints about the
+ * analysis: dashboard URL, CE task URL (which holds the server URL and the CE task id) and the Java 11 warning.
+ * Lines are only decoded when they contain one of these messages.
+ */
+public class ScannerOutputSniffer extends LineTransformationOutputStream {
+  private static final String DASHBOARD_MARKER = "ANALYSIS SUCCESSFUL, you can ";
+  private static final String CE_TASK_MARKER = "More about the report processing at ";
+  private static final String CE_TASK_PATH = "/api/ce/task";
+  private static final String CE_TASK_ID_PARAM = "?id=";
+
+  /**
+   * Sniffers attached to the console of running builds, see {@link #attach(Run, OutputStream, Charset)}
+   */
+  private static final Cache<Run<?, ?>, ScannerOutputSniffer> BY_BUILD = Caffeine.newBuilder().weakKeys().weakValues().build();
+
+  private final OutputStream logger;
+  private final Charset charset;
+  private final byte[] dashboardMarker;
+  private final byte[] ceTaskMarker;
+  private final byte[] java11Marker;
+
+  private volatile String dashboardUrl;
+  private volatile String serverUrl;
+  private volatile String ceTaskId;
+  private volatile boolean java11Warning;
+
+  public ScannerOutputSniffer(OutputStream logger, Charset charset) {
+    this.logger = logger;
+    this.charset = charset;
+    this.dashboardMarker = DASHBOARD_MARKER.getBytes(charset);
+    this.ceTaskMarker = CE_TASK_MARKER.getBytes(charset);
+    this.java11Marker = SonarUtils.JAVA_11_WARNING.getBytes(charset);
+  }
+
+  /**
+   * Creates a sniffer for the whole console of a build, that can later be retrieved with {@link #of(Run)}.
+   */
+  public static ScannerOutputSniffer attach(Run<?, ?> build, OutputStream logger, Charset charset) {
+    ScannerOutputSniffer sniffer = new ScannerOutputSniffer(logger, charset);
+    BY_BUILD.put(build, sniffer);
+    return sniffer;
+  }
+
+  @CheckForNull
+  public static ScannerOutputSniffer of(Run<?, ?> build) {
+    return BY_BUILD.getIfPresent(build);
+  }
+
+  @Override
+  protected void eol(byte[] bytes, int len) throws IOException {
+    logger.write(bytes, 0, len);
+
+    if (!java11Warning && BuildLogScanner.indexOf(bytes, len, java11Marker) >= 0) {
+      java11Warning = true;
+    }
+
+    String dashboard = valueAfter(bytes, len, dashboardMarker);
+    if (dashboard != null) {
+      // "you can browse <url>" or "you can find the results at: <url>"
+      dashboardUrl = StringUtils.substringAfterLast(" " + dashboard, " ");
+      return;
+    }
+
+    String ceTaskUrl = valueAfter(bytes, len, ceTaskMarker);
+    if (ceTaskUrl != null && ceTaskUrl.contains(CE_TASK_PATH + CE_TASK_ID_PARAM)) {
+      serverUrl = StringUtils.substringBefore(ceTaskUrl, CE_TASK_PATH);
+      ceTaskId = StringUtils.substringAfter(ceTaskUrl, CE_TASK_ID_PARAM);
+    }
+  }
+
+  @CheckForNull
+  private String valueAfter(byte[] bytes, int len, byte[] marker) {
+    int idx = BuildLogScanner.indexOf(bytes, len, marker);
+    if (idx < 0) {
+      return null;
+    }
+    int start = idx + marker.length;
+    String value = charset.decode(ByteBuffer.wrap(bytes, start, len - start)).toString().trim();
+    return value.isEmpty() ? null : value;
+  }
+
+  public boolean hasJava11Warning() {
+    return java11Warning;
+  }
+
+  @CheckForNull
+  public String getCeTaskId() {
+    return ceTaskId;
+  }
+
+  @CheckForNull
+  public String getServerUrl() {
+    return serverUrl;
+  }
+
+  @CheckForNull
+  public String getDashboardUrl() {
+    return dashboardUrl;
+  }
+
+  /**
+   * @return the same properties as the ones found in the report task file, or null if the scanner didn't print the CE task
+   */
+  @CheckForNull
+  public Properties getReportTask() {
+    if (ceTaskId == null) {
+      return null;
+    }
+    Properties p = new Properties();
+    p.setProperty(SonarUtils.CE_TASK_ID_KEY, ceTaskId);
+    p.setProperty(SonarUtils.SERVER_URL_KEY, serverUrl);
+    if (dashboardUrl != null) {
+      p.setProperty(SonarUtils.DASHBOARD_URL_KEY, dashboardUrl);
+    }
+    return p;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    logger.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    logger.close();
+  }
+}
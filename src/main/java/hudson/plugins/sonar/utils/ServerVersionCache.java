@@ -0,0 +1,147 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers the version of each SonarQube server, so that starting an analysis does not cost a call to
+ * {@code /api/server/version}. Failures are remembered too, for a shorter time, so that an unreachable server does not
+ * slow down every build. Concurrent lookups of the same server wait for a single request.
+ * <p>
+ * Entries are keyed by installation name and server URL, and are dropped when the global configuration changes.
+ */
+public final class ServerVersionCache {
+  private static final String PREFIX = ServerVersionCache.class.getName();
+  private static final ServerVersionCache INSTANCE = new ServerVersionCache(
+    SystemProperties.getLong(PREFIX + ".ttlMinutes", 10L),
+    SystemProperties.getLong(PREFIX + ".failureTtlSeconds", 60L),
+    Ticker.systemTicker());
+
+  private final Cache<Key, Entry> versions;
+
+  ServerVersionCache(long ttlMinutes, long failureTtlSeconds, Ticker ticker) {
+    long ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+    long failureTtlNanos = TimeUnit.SECONDS.toNanos(failureTtlSeconds);
+    this.versions = Caffeine.newBuilder()
+      .maximumSize(1_000)
+      .ticker(ticker)
+      .expireAfter(new Expiry<Key, Entry>() {
+        @Override
+        public long expireAfterCreate(Key key, Entry entry, long currentTime) {
+          return entry.failure == null ? ttlNanos : failureTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Entry entry, long currentTime, long currentDuration) {
+          return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Entry entry, long currentTime, long currentDuration) {
+          return currentDuration;
+        }
+      })
+      .build();
+  }
+
+  public static ServerVersionCache get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the cached version of the server, calling {@code fetcher} if it is unknown or expired.
+   *
+   * @throws IllegalStateException if the version could not be retrieved, now or during the last {@code failureTtlSeconds}
+   */
+  public Version getVersion(@Nullable String installationName, String serverUrl, Supplier<String> fetcher) {
+    Entry entry = versions.get(new Key(installationName, serverUrl), k -> fetch(fetcher));
+    if (entry.failure != null) {
+      throw new IllegalStateException("Unable to retrieve the version of " + serverUrl, entry.failure);
+    }
+    return entry.version;
+  }
+
+  /**
+   * Forgets all the versions, for example because the installations were reconfigured.
+   */
+  public void invalidateAll() {
+    versions.invalidateAll();
+  }
+
+  long size() {
+    versions.cleanUp();
+    return versions.estimatedSize();
+  }
+
+  private static Entry fetch(Supplier<String> fetcher) {
+    try {
+      return new Entry(new Version(fetcher.get()), null);
+    } catch (RuntimeException e) {
+      Logger.LOG.fine(() -> "Failed to retrieve SonarQube server version: " + e.getMessage());
+      return new Entry(null, e);
+    }
+  }
+
+  private static final class Entry {
+    private final Version version;
+    private final RuntimeException failure;
+
+    private Entry(@Nullable Version version, @Nullable RuntimeException failure) {
+      this.version = version;
+      this.failure = failure;
+    }
+  }
+
+  private static final class Key {
+    private final String installationName;
+    private final String serverUrl;
+
+    private Key(@Nullable String installationName, String serverUrl) {
+      this.installationName = installationName;
+      this.serverUrl = serverUrl;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return Objects.equals(installationName, other.installationName) && serverUrl.equals(other.serverUrl);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(installationName, serverUrl);
+    }
+  }
+}
@@ -24,7 +24,6 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
 import hudson.FilePath;
-import hudson.Util;
 import hudson.model.Action;
 import hudson.model.Actionable;
 import hudson.model.Result;
@@ -34,23 +33,14 @@ import hudson.plugins.sonar.SonarInstallation;
 import hudson.plugins.sonar.action.SonarAnalysisAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.WsClient;
-import hudson.remoting.VirtualChannel;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
-import jenkins.MasterToSlaveFileCallable;
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.types.FileSet;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 
 public final class SonarUtils {
@@ -62,6 +52,11 @@ public final class SonarUtils {
   public static final String PROPERTY_SONAR_LOGIN = "sonar.login";
   public static final String PROPERTY_SONAR_TOKEN = "sonar.token";
   private static final String SONARCLOUD_URL = "https://sonarcloud.io";
+  static final String JAVA_11_WARNING = "Please update to at least Java 11.";
+  /**
+   * The scanner prints its warnings at the end of the build log, so only its tail is scanned.
+   */
+  private static final long JAVA_11_WARNING_SCAN_BUDGET = SystemProperties.getLong(SonarUtils.class.getName() + ".logScanBudget", 16L * 1024 * 1024);
 
   /**
    * Hide utility-class constructor.
@@ -99,54 +94,39 @@ public final class SonarUtils {
   }
 
   public static Properties extractReportTask(TaskListener listener, FilePath workspace) throws IOException, InterruptedException {
-    FilePath[] candidates = null;
-    if (workspace.exists()) {
-      candidates = workspace.act(new ListWithoutSymlinksCallable("**/" + REPORT_TASK_FILE_NAME));
-    }
-    if (candidates == null || candidates.length == 0) {
-      listener.getLogger().println("WARN: Unable to locate '" + REPORT_TASK_FILE_NAME + "' in the workspace. Did the SonarScanner succeed?");
-      return null;
-    } else {
-      if (candidates.length > 1) {
-        listener.getLogger().println("WARN: Found multiple '" + REPORT_TASK_FILE_NAME + "' in the workspace. Taking the first one.");
-        Stream.of(candidates).forEach(p -> listener.getLogger().println(p));
-      }
-      FilePath reportTaskFile = candidates[0];
-      try (InputStream in = reportTaskFile.read()) {
-        Properties p = new Properties();
-        p.load(new InputStreamReader(in, StandardCharsets.UTF_8));
-        return p;
-      }
-    }
-
+    return extractReportTask(listener, workspace, null);
   }
 
   /**
-   * Similar to what is used for {@link FilePath#list(String)} but does not follow symlinks.
+   * @param workingDirectory value of 'sonar.working.directory' given to the scanner, if any
    */
-  private static class ListWithoutSymlinksCallable extends MasterToSlaveFileCallable<FilePath[]> {
-    private static final long serialVersionUID = 1L;
-    private final String includes;
+  public static Properties extractReportTask(TaskListener listener, FilePath workspace, @Nullable String workingDirectory) throws IOException, InterruptedException {
+    return extractReportTask(listener, workspace, workingDirectory, 0L);
+  }
 
-    ListWithoutSymlinksCallable(String includes) {
-      this.includes = includes;
+  /**
+   * @param workingDirectory value of 'sonar.working.directory' given to the scanner, if any
+   * @param notBefore start time of the build, see {@link ReportTaskFileFinder#ReportTaskFileFinder(String, long)}
+   */
+  public static Properties extractReportTask(TaskListener listener, FilePath workspace, @Nullable String workingDirectory, long notBefore)
+    throws IOException, InterruptedException {
+    // a single call to the agent finds, chooses and reads the file
+    ReportTaskFileFinder.Result result = workspace.act(new ReportTaskFileFinder(workingDirectory, notBefore));
+    Logger.LOG.fine(() -> String.format("Looked up '%s' in %s in %d ms (well-known location: %s)", REPORT_TASK_FILE_NAME, workspace.getRemote(),
+      result.getDurationMillis(), result.isWellKnownLocation()));
+    if (result.isTimedOut()) {
+      listener.getLogger().println("WARN: Stopped looking for '" + REPORT_TASK_FILE_NAME + "' in the workspace after " + result.getDurationMillis() + " ms.");
     }
-
-    @Override
-    public FilePath[] invoke(File dir, VirtualChannel channel) {
-      FileSet fs = Util.createFileSet(dir, includes, null);
-      fs.setDefaultexcludes(true);
-      fs.setFollowSymlinks(false);
-
-      DirectoryScanner ds = fs.getDirectoryScanner(new Project());
-      String[] includedFiles = ds.getIncludedFiles();
-
-      FilePath[] filePaths = new FilePath[includedFiles.length];
-      for (int i = 0; i < filePaths.length; i++) {
-        filePaths[i] = new FilePath(new File(dir, includedFiles[i]));
-      }
-      return filePaths;
+    ReportTask reportTask = result.getReportTask();
+    if (reportTask == null) {
+      listener.getLogger().println("WARN: Unable to locate '" + REPORT_TASK_FILE_NAME + "' in the workspace. Did the SonarScanner succeed?");
+      return null;
     }
+    if (!result.getOtherFiles().isEmpty()) {
+      listener.getLogger().println("WARN: Found multiple '" + REPORT_TASK_FILE_NAME + "' in the workspace. Taking the most recent one: " + reportTask.getPath());
+      result.getOtherFiles().forEach(p -> listener.getLogger().println(p));
+    }
+    return reportTask.toProperties();
   }
 
   @Nullable
@@ -157,10 +137,22 @@ public final class SonarUtils {
   public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, @Nullable String credentialId,
     boolean skippedIfNoBuild)
     throws IOException, InterruptedException {
+    return addBuildInfoTo(build, listener, workspace, sonarInstallation, credentialId, skippedIfNoBuild, null, null);
+  }
+
+  /**
+   * Same as {@link #addBuildInfoTo(Run, TaskListener, FilePath, SonarInstallation, String, boolean)}, but uses what was captured from the scanner output, if any,
+   * instead of reading the build log and looking for the report task file in the workspace.
+   *
+   * @param workingDirectory value of 'sonar.working.directory' given to the scanner, if any
+   */
+  public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, @Nullable String credentialId,
+    boolean skippedIfNoBuild, @Nullable ScannerOutputSniffer scannerOutput, @Nullable String workingDirectory)
+    throws IOException, InterruptedException {
     SonarAnalysisAction buildInfo = createSonarAnalysisAction(sonarInstallation, credentialId, build, listener);
 
-    boolean java11Warning = build.getLog(Integer.MAX_VALUE).stream()
-      .anyMatch(line -> line.contains("Please update to at least Java 11."));
+    boolean java11Warning = scannerOutput != null ? scannerOutput.hasJava11Warning()
+      : BuildLogScanner.tailContains(build, JAVA_11_WARNING, JAVA_11_WARNING_SCAN_BUDGET);
 
     Result result = build.getResult();
     if (java11Warning && !Result.FAILURE.equals(result)) {
@@ -169,7 +161,10 @@ public final class SonarUtils {
         "Find more information here on how to do this: https://sonarcloud.io/documentation/appendices/move-analysis-java-11/");
     }
 
-    Properties reportTask = extractReportTask(listener, workspace);
+    Properties reportTask = scannerOutput != null ? scannerOutput.getReportTask() : null;
+    if (reportTask == null) {
+      reportTask = extractReportTask(listener, workspace, workingDirectory, build.getStartTimeInMillis());
+    }
     if (reportTask != null) {
       buildInfo.setServerUrl(reportTask.getProperty(SERVER_URL_KEY));
       buildInfo.setUrl(reportTask.getProperty(DASHBOARD_URL_KEY));
@@ -187,6 +182,16 @@ public final class SonarUtils {
     return addBuildInfoTo(build, listener, workspace, sonarInstallation, sonarInstallation.getCredentialsId());
   }
 
+  public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation,
+    @Nullable ScannerOutputSniffer scannerOutput) throws IOException, InterruptedException {
+    return addBuildInfoTo(build, listener, workspace, sonarInstallation, scannerOutput, null);
+  }
+
+  public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation,
+    @Nullable ScannerOutputSniffer scannerOutput, @Nullable String workingDirectory) throws IOException, InterruptedException {
+    return addBuildInfoTo(build, listener, workspace, sonarInstallation, sonarInstallation.getCredentialsId(), false, scannerOutput, workingDirectory);
+  }
+
   public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, @Nullable String credentialId)
     throws IOException, InterruptedException {
     return addBuildInfoTo(build, listener, workspace, sonarInstallation, credentialId, false);
@@ -288,7 +293,7 @@ public final class SonarUtils {
       throw new IllegalStateException("No server url on installation: " + inst.getName());
     }
     WsClient wsClient = new WsClient(client, inst.getServerUrl(), null);
-    return new Version(wsClient.getServerVersion());
+    return ServerVersionCache.get().getVersion(inst.getName(), inst.getServerUrl(), wsClient::getServerVersion);
   }
 
   public static boolean isSonarCloud(SonarInstallation inst) {
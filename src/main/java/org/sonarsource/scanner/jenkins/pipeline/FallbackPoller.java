@@ -0,0 +1,406 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.google.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.client.HttpClient;
+import hudson.plugins.sonar.client.OkHttpClientSingleton;
+import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.QualityGateCache;
+import hudson.plugins.sonar.client.SQProjectResolver;
+import hudson.plugins.sonar.client.WsClient;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.sonarqube.ws.client.HttpException;
+
+/**
+ * Polls SonarQube for the tasks of the quality gate steps which are still waiting for their webhook, in case it never
+ * comes. Steps opt in with their {@code poll} parameter, and {@code disabled} turns polling off for all of them. Each task is checked less and less often, from {@code initialDelaySeconds} up to {@code maxDelaySeconds}.
+ * <p>
+ * Tasks waited for on the same server with the same token are checked together: with a single request to
+ * {@code /api/ce/activity} when the token is allowed to, with one {@code /api/ce/task} request per task otherwise.
+ */
+final class FallbackPoller {
+  private static final Logger LOGGER = Logger.getLogger(FallbackPoller.class.getName());
+  private static final String PREFIX = FallbackPoller.class.getName();
+  private static final boolean DISABLED = SystemProperties.getBoolean(PREFIX + ".disabled");
+  private static final long INITIAL_DELAY_SECONDS = SystemProperties.getLong(PREFIX + ".initialDelaySeconds", 60L);
+  private static final long MAX_DELAY_SECONDS = SystemProperties.getLong(PREFIX + ".maxDelaySeconds", 1800L);
+  /**
+   * Tasks are looked for in the activity submitted up to this long before their step started waiting
+   */
+  private static final long ACTIVITY_LOOKBACK_HOURS = SystemProperties.getLong(PREFIX + ".activityLookbackHours", 6L);
+  /**
+   * Below this number of tasks, checking them one by one is as cheap as reading the activity
+   */
+  private static final int MIN_BATCH_SIZE = 3;
+
+  private final Api api;
+  /**
+   * Looked up for each round, Jenkins replaces its timer when it is restarted
+   */
+  private final Supplier<ScheduledExecutorService> scheduler;
+  private final LongSupplier clock;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final long lookbackMillis;
+  private final Map<GroupKey, Group> groups = new HashMap<>();
+
+  @VisibleForTesting
+  FallbackPoller(Api api, Supplier<ScheduledExecutorService> scheduler, LongSupplier clock, long initialDelayMillis, long maxDelayMillis, long lookbackMillis) {
+    this.api = api;
+    this.scheduler = scheduler;
+    this.clock = clock;
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.lookbackMillis = lookbackMillis;
+  }
+
+  static FallbackPoller get() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Starts polling the task until it is finished, unless already done for this listener. The listener is called
+   * once, if the task finishes before {@link #unwatch(String, Listener)} is called.
+   */
+  void watch(String serverUrl, @Nullable String token, String taskId, Listener listener) {
+    if (DISABLED) {
+      return;
+    }
+    synchronized (this) {
+      GroupKey key = new GroupKey(StringUtils.removeEnd(serverUrl, "/"), token);
+      Group group = groups.computeIfAbsent(key, Group::new);
+      group.tasks.computeIfAbsent(taskId, id -> new WatchedTask(id, clock.getAsLong(), initialDelayMillis)).listeners.add(listener);
+      schedule(group);
+    }
+  }
+
+  synchronized void unwatch(String taskId, Listener listener) {
+    for (Group group : new ArrayList<>(groups.values())) {
+      WatchedTask task = group.tasks.get(taskId);
+      if (task != null && task.listeners.remove(listener) && task.listeners.isEmpty()) {
+        group.tasks.remove(taskId);
+        schedule(group);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int watchedTasks() {
+    return groups.values().stream().mapToInt(g -> g.tasks.size()).sum();
+  }
+
+  /**
+   * Schedules the next round of the group at the time the first of its tasks is due
+   */
+  private void schedule(Group group) {
+    if (group.polling) {
+      // will be done at the end of the round
+      return;
+    }
+    if (group.tasks.isEmpty()) {
+      cancel(group);
+      groups.remove(group.key);
+      return;
+    }
+    long due = group.tasks.values().stream().mapToLong(t -> t.nextCheck).min().getAsLong();
+    if (group.next != null && group.nextAt <= due) {
+      return;
+    }
+    cancel(group);
+    group.nextAt = due;
+    try {
+      group.next = scheduler.get().schedule(() -> poll(group), Math.max(0, due - clock.getAsLong()), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOGGER.log(Level.WARNING, "Unable to schedule polling of SonarQube tasks", e);
+    }
+  }
+
+  private static void cancel(Group group) {
+    if (group.next != null) {
+      group.next.cancel(false);
+      group.next = null;
+    }
+  }
+
+  private void poll(Group group) {
+    List<WatchedTask> due = new ArrayList<>();
+    List<WatchedTask> all;
+    boolean batch;
+    synchronized (this) {
+      group.next = null;
+      if (groups.get(group.key) != group) {
+        return;
+      }
+      long now = clock.getAsLong();
+      all = new ArrayList<>(group.tasks.values());
+      for (WatchedTask task : all) {
+        if (task.nextCheck <= now) {
+          due.add(task);
+        }
+      }
+      if (due.isEmpty()) {
+        schedule(group);
+        return;
+      }
+      group.polling = true;
+      batch = group.activityAllowed && all.size() >= MIN_BATCH_SIZE;
+    }
+
+    CompletableFuture<?> round = batch ? pollActivity(group, all, due) : pollTasks(group, due);
+    List<WatchedTask> checked = batch ? all : due;
+    round.whenComplete((r, e) -> {
+      synchronized (this) {
+        group.polling = false;
+        long now = clock.getAsLong();
+        for (WatchedTask task : checked) {
+          task.delay = Math.min(task.delay * 2, maxDelayMillis);
+          task.nextCheck = now + task.delay;
+        }
+        schedule(group);
+      }
+    });
+  }
+
+  private CompletableFuture<?> pollTasks(Group group, List<WatchedTask> tasks) {
+    List<CompletableFuture<?>> checks = new ArrayList<>();
+    for (WatchedTask task : tasks) {
+      checks.add(call(() -> api.fetch(group.key.serverUrl, group.key.token, task.taskId)).handle((info, e) -> {
+        if (e != null) {
+          LOGGER.log(Level.FINE, e, () -> "Unable to poll SonarQube task " + task.taskId);
+        } else if (QualityGateCache.isTerminal(info)) {
+          completed(group, task.taskId, info);
+        }
+        return null;
+      }));
+    }
+    return CompletableFuture.allOf(checks.toArray(new CompletableFuture[0]));
+  }
+
+  private CompletableFuture<?> pollActivity(Group group, List<WatchedTask> tasks, List<WatchedTask> due) {
+    long since = tasks.stream().mapToLong(t -> t.waitingSince).min().getAsLong() - lookbackMillis;
+    return call(() -> api.activity(group.key.serverUrl, group.key.token, Instant.ofEpochMilli(since))).handle((activity, e) -> {
+      if (e != null) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof HttpException && (((HttpException) cause).code() == 401 || ((HttpException) cause).code() == 403)) {
+          LOGGER.fine(() -> "Not allowed to read the activity of " + group.key.serverUrl + ", polling tasks one by one");
+          synchronized (this) {
+            group.activityAllowed = false;
+          }
+        } else {
+          LOGGER.log(Level.FINE, cause, () -> "Unable to read the activity of " + group.key.serverUrl);
+        }
+        return pollTasks(group, due);
+      }
+      if (!activity.isComplete()) {
+        // too many tasks finished in the period to be sure that the missing ones are still running
+        return pollTasks(group, due);
+      }
+      List<CompletableFuture<?>> checks = new ArrayList<>();
+      for (WatchedTask task : tasks) {
+        WsClient.CETask ceTask = activity.getTasks().get(task.taskId);
+        if (ceTask != null) {
+          checks.add(fetchQualityGate(group, task.taskId, ceTask));
+        }
+      }
+      return CompletableFuture.allOf(checks.toArray(new CompletableFuture[0]));
+    }).thenCompose(f -> f);
+  }
+
+  /**
+   * Completes a task found in the activity, whose quality gate status is still to be fetched
+   */
+  private CompletableFuture<?> fetchQualityGate(Group group, String taskId, WsClient.CETask ceTask) {
+    ProjectInformation info = new ProjectInformation();
+    info.setCeStatus(ceTask.getStatus());
+    info.setCeUrl(ceTask.getUrl());
+    info.setName(ceTask.getComponentName());
+    String analysisId = ceTask.getAnalysisId();
+    if (!WsClient.CETask.STATUS_SUCCESS.equals(ceTask.getStatus()) || analysisId == null) {
+      completed(group, taskId, info);
+      return CompletableFuture.completedFuture(null);
+    }
+    return call(() -> api.qualityGateStatus(group.key.serverUrl, group.key.token, analysisId)).handle((status, e) -> {
+      if (e != null) {
+        LOGGER.log(Level.FINE, e, () -> "Unable to get the quality gate of SonarQube task " + taskId);
+      } else {
+        info.setStatus(status);
+        completed(group, taskId, info);
+      }
+      return null;
+    });
+  }
+
+  private void completed(Group group, String taskId, ProjectInformation info) {
+    List<Listener> listeners;
+    synchronized (this) {
+      WatchedTask task = group.tasks.remove(taskId);
+      if (task == null) {
+        return;
+      }
+      listeners = new ArrayList<>(task.listeners);
+    }
+    for (Listener listener : listeners) {
+      try {
+        listener.onTaskCompleted(copy(info));
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, e, () -> "Failed to process the result of SonarQube task " + taskId);
+      }
+    }
+  }
+
+  private static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request) {
+    try {
+      return request.get();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static ProjectInformation copy(ProjectInformation info) {
+    ProjectInformation copy = new ProjectInformation();
+    copy.setCeStatus(info.getCeStatus());
+    copy.setCeUrl(info.getCeUrl());
+    copy.setName(info.getProjectName());
+    copy.setStatus(info.getStatus());
+    return copy;
+  }
+
+  /**
+   * Notified when a watched task is finished
+   */
+  interface Listener {
+    void onTaskCompleted(ProjectInformation projectInformation);
+  }
+
+  /**
+   * Requests to SonarQube
+   */
+  interface Api {
+    CompletableFuture<ProjectInformation> fetch(String serverUrl, @Nullable String token, String taskId);
+
+    CompletableFuture<WsClient.CEActivity> activity(String serverUrl, @Nullable String token, Instant minSubmittedAt);
+
+    CompletableFuture<String> qualityGateStatus(String serverUrl, @Nullable String token, String analysisId);
+  }
+
+  private static final class DefaultApi implements Api {
+    private final HttpClient client = new HttpClient(OkHttpClientSingleton.getInstance());
+    private final SQProjectResolver resolver = new SQProjectResolver(client);
+
+    @Override
+    public CompletableFuture<ProjectInformation> fetch(String serverUrl, @Nullable String token, String taskId) {
+      return resolver.fetchAsync(serverUrl, token, taskId);
+    }
+
+    @Override
+    public CompletableFuture<WsClient.CEActivity> activity(String serverUrl, @Nullable String token, Instant minSubmittedAt) {
+      return new WsClient(client, serverUrl, token).getFinishedCETasksAsync(minSubmittedAt);
+    }
+
+    @Override
+    public CompletableFuture<String> qualityGateStatus(String serverUrl, @Nullable String token, String analysisId) {
+      return new WsClient(client, serverUrl, token).requestQualityGateStatusAsync(analysisId);
+    }
+  }
+
+  private static final class Holder {
+    private static final FallbackPoller INSTANCE = new FallbackPoller(new DefaultApi(), Timer::get, System::currentTimeMillis,
+      TimeUnit.SECONDS.toMillis(INITIAL_DELAY_SECONDS), TimeUnit.SECONDS.toMillis(MAX_DELAY_SECONDS), TimeUnit.HOURS.toMillis(ACTIVITY_LOOKBACK_HOURS));
+  }
+
+  private static final class Group {
+    private final GroupKey key;
+    private final Map<String, WatchedTask> tasks = new HashMap<>();
+    private boolean activityAllowed = true;
+    private boolean polling;
+    private ScheduledFuture<?> next;
+    private long nextAt;
+
+    private Group(GroupKey key) {
+      this.key = key;
+    }
+  }
+
+  private static final class WatchedTask {
+    private final String taskId;
+    private final long waitingSince;
+    private final Set<Listener> listeners = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long delay;
+    private long nextCheck;
+
+    private WatchedTask(String taskId, long now, long initialDelay) {
+      this.taskId = taskId;
+      this.waitingSince = now;
+      this.delay = initialDelay;
+      this.nextCheck = now + initialDelay;
+    }
+  }
+
+  private static final class GroupKey {
+    private final String serverUrl;
+    @Nullable
+    private final String token;
+
+    private GroupKey(String serverUrl, @Nullable String token) {
+      this.serverUrl = serverUrl;
+      this.token = token;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof GroupKey)) {
+        return false;
+      }
+      GroupKey other = (GroupKey) o;
+      return serverUrl.equals(other.serverUrl) && Objects.equals(token, other.token);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(serverUrl, token);
+    }
+  }
+}
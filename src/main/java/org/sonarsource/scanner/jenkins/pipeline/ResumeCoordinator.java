@@ -0,0 +1,198 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.google.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.client.HttpClient;
+import hudson.plugins.sonar.client.OkHttpClientSingleton;
+import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.SQProjectResolver;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Spreads the checks of the quality gate steps resumed after a restart of the controller, which would otherwise all
+ * query SonarQube at once. Checks are scheduled per server according to a token bucket, with some jitter, and steps
+ * waiting for the same task with the same token share the same check.
+ */
+final class ResumeCoordinator {
+  private static final String PREFIX = ResumeCoordinator.class.getName();
+  private static final double CHECKS_PER_SECOND = Double.parseDouble(SystemProperties.getString(PREFIX + ".checksPerSecond", "5"));
+  private static final int BURST = SystemProperties.getInteger(PREFIX + ".burst", 10);
+  private static final long MAX_JITTER_MILLIS = SystemProperties.getLong(PREFIX + ".maxJitterMillis", 2000L);
+
+  private final Fetcher fetcher;
+  private final ScheduledExecutorService scheduler;
+  private final double checksPerSecond;
+  private final int burst;
+  private final LongSupplier nanoTime;
+  private final LongSupplier jitterNanos;
+  private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Key, CompletableFuture<ProjectInformation>> checks = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  ResumeCoordinator(Fetcher fetcher, ScheduledExecutorService scheduler, double checksPerSecond, int burst, LongSupplier nanoTime,
+    LongSupplier jitterNanos) {
+    this.fetcher = fetcher;
+    this.scheduler = scheduler;
+    this.checksPerSecond = checksPerSecond;
+    this.burst = burst;
+    this.nanoTime = nanoTime;
+    this.jitterNanos = jitterNanos;
+  }
+
+  static ResumeCoordinator get() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * @return the CE task and, if it is finished, its quality gate status. Each caller gets its own instance, which it
+   * can modify.
+   */
+  CompletableFuture<ProjectInformation> check(String serverUrl, @Nullable String token, String taskId) {
+    Key key = new Key(StringUtils.removeEnd(serverUrl, "/"), token, taskId);
+    CompletableFuture<ProjectInformation> check = new CompletableFuture<>();
+    CompletableFuture<ProjectInformation> existing = checks.putIfAbsent(key, check);
+    if (existing == null) {
+      schedule(key, check, serverUrl, token);
+      existing = check;
+    }
+    return existing.thenApply(ResumeCoordinator::copy);
+  }
+
+  private void schedule(Key key, CompletableFuture<ProjectInformation> check, String serverUrl, @Nullable String token) {
+    check.whenComplete((info, e) -> checks.remove(key, check));
+
+    long delay = buckets.computeIfAbsent(key.serverUrl, k -> new TokenBucket(checksPerSecond, burst)).reserve(nanoTime.getAsLong())
+      + jitterNanos.getAsLong();
+    try {
+      scheduler.schedule(() -> {
+        CompletableFuture<ProjectInformation> fetch;
+        try {
+          fetch = fetcher.fetch(serverUrl, token, key.taskId);
+        } catch (RuntimeException e) {
+          fetch = CompletableFuture.failedFuture(e);
+        }
+        fetch.whenComplete((info, e) -> {
+          if (e != null) {
+            check.completeExceptionally(e);
+          } else {
+            check.complete(info);
+          }
+        });
+      }, delay, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      check.completeExceptionally(e);
+    }
+  }
+
+  private static ProjectInformation copy(ProjectInformation info) {
+    ProjectInformation copy = new ProjectInformation();
+    copy.setCeStatus(info.getCeStatus());
+    copy.setCeUrl(info.getCeUrl());
+    copy.setName(info.getProjectName());
+    copy.setStatus(info.getStatus());
+    copy.setUrl(info.getUrl());
+    return copy;
+  }
+
+  @VisibleForTesting
+  int pendingChecks() {
+    return checks.size();
+  }
+
+  private static final class Holder {
+    private static final ResumeCoordinator INSTANCE = new ResumeCoordinator(
+      new SQProjectResolver(new HttpClient(OkHttpClientSingleton.getInstance()))::fetchAsync, Timer.get(), CHECKS_PER_SECOND, BURST,
+      System::nanoTime, () -> MAX_JITTER_MILLIS > 0 ? ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(MAX_JITTER_MILLIS)) : 0L);
+  }
+
+  @FunctionalInterface
+  interface Fetcher {
+    CompletableFuture<ProjectInformation> fetch(String serverUrl, @Nullable String token, String taskId);
+  }
+
+  /**
+   * Allows {@code burst} checks at once, then one every {@code 1 / checksPerSecond} second
+   */
+  static final class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private long nextFree = Long.MIN_VALUE;
+
+    TokenBucket(double checksPerSecond, int burst) {
+      this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / checksPerSecond);
+      this.burstNanos = Math.max(0, burst - 1) * intervalNanos;
+    }
+
+    /**
+     * @return how long to wait before using the reserved token
+     */
+    synchronized long reserve(long now) {
+      long start = nextFree == Long.MIN_VALUE ? now : Math.max(nextFree, now);
+      nextFree = start + intervalNanos;
+      return Math.max(0, start - burstNanos - now);
+    }
+  }
+
+  /**
+   * The token is part of the key: a step must not get a result fetched with the credentials of another one
+   */
+  private static final class Key {
+    private final String serverUrl;
+    @Nullable
+    private final String token;
+    private final String taskId;
+
+    private Key(String serverUrl, @Nullable String token, String taskId) {
+      this.serverUrl = serverUrl;
+      this.token = token;
+      this.taskId = taskId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return serverUrl.equals(key.serverUrl) && Objects.equals(token, key.token) && taskId.equals(key.taskId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(serverUrl, token, taskId);
+    }
+  }
+}
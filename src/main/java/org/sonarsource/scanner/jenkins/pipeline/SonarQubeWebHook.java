@@ -23,22 +23,47 @@ import com.google.common.annotations.VisibleForTesting;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
 import hudson.model.RootAction;
+import hudson.model.TaskListener;
 import hudson.model.UnprotectedRootAction;
+import hudson.plugins.sonar.SonarInstallation;
+import hudson.plugins.sonar.client.JsonFieldReader;
 import hudson.plugins.sonar.client.WsClient.CETask;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import javax.servlet.http.HttpServletResponse;
 import jenkins.model.Jenkins;
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import org.apache.commons.io.IOUtils;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
@@ -46,11 +71,83 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 @Extension
 public class SonarQubeWebHook implements UnprotectedRootAction {
   private static final Logger LOGGER = Logger.getLogger(SonarQubeWebHook.class.getName());
+  private static final String PREFIX = SonarQubeWebHook.class.getName();
+  private static final int WORKERS = SystemProperties.getInteger(PREFIX + ".workers", 2);
+  private static final int QUEUE_SIZE = SystemProperties.getInteger(PREFIX + ".queueSize", 1000);
+  private static final int RETRY_AFTER_SECONDS = SystemProperties.getInteger(PREFIX + ".retryAfterSeconds", 10);
+  /**
+   * How long received events are kept on disk for the steps resumed after a restart, 0 to disable
+   */
+  private static final long JOURNAL_RETENTION_HOURS = SystemProperties.getLong(PREFIX + ".journalRetentionHours", 24L);
+  /**
+   * Caps of the journal, beyond which the oldest events are dropped
+   */
+  private static final long JOURNAL_MAX_BYTES = SystemProperties.getLong(PREFIX + ".journalMaxBytes", WebhookEventJournal.DEFAULT_MAX_BYTES);
+  private static final int JOURNAL_MAX_EVENTS = SystemProperties.getInteger(PREFIX + ".journalMaxEvents", WebhookEventJournal.DEFAULT_MAX_EVENTS);
+  /**
+   * Larger payloads are rejected, without being read entirely when their size is announced
+   */
+  private static final int MAX_PAYLOAD_BYTES = SystemProperties.getInteger(PREFIX + ".maxPayloadBytes", 1024 * 1024);
+  /**
+   * Read buffers up to this size are kept by the request threads for the next payloads
+   */
+  private static final int MAX_RETAINED_BUFFER_BYTES = 32 * 1024;
+  private static final ThreadLocal<byte[]> READ_BUFFERS = ThreadLocal.withInitial(() -> new byte[8 * 1024]);
   private final Cache<String, WebhookEvent> eventCache = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.HOURS).build();
   public static final String URLNAME = "sonarqube-webhook";
 
+  /**
+   * Listeners are called here rather than in the request thread, so that SonarQube gets its answer without waiting
+   * for credential lookups and pipeline resumption. SonarQube gives up on a webhook delivery after 10s.
+   */
+  private final Executor dispatcher;
+  private final AtomicInteger pendingEvents = new AtomicInteger();
+  private final AtomicLong dispatchedEvents = new AtomicLong();
+  private final AtomicLong rejectedEvents = new AtomicLong();
+
+  /**
+   * Listeners waiting for the event of a given compute engine task, indexed by task id, so that an event is only
+   * dispatched to them
+   */
+  private final ConcurrentMap<String, Set<Consumer<WebhookEvent>>> taskListeners = new ConcurrentHashMap<>();
+  /**
+   * Listeners receiving every event
+   */
+  private final List<Consumer<WebhookEvent>> globalListeners = new CopyOnWriteArrayList<>();
+
+  @CheckForNull
+  private final WebhookEventJournal journal;
+
+  public SonarQubeWebHook() {
+    this(createDispatcher(), createJournal());
+  }
+
+  @VisibleForTesting
+  SonarQubeWebHook(Executor dispatcher) {
+    this(dispatcher, null);
+  }
+
   @VisibleForTesting
-  List<Consumer<WebhookEvent>> listeners = new CopyOnWriteArrayList<>();
+  SonarQubeWebHook(Executor dispatcher, @Nullable WebhookEventJournal journal) {
+    this.dispatcher = dispatcher;
+    this.journal = journal;
+  }
+
+  @CheckForNull
+  private static WebhookEventJournal createJournal() {
+    if (JOURNAL_RETENTION_HOURS <= 0) {
+      return null;
+    }
+    File file = new File(Jenkins.get().getRootDir(), SonarQubeWebHook.class.getName() + ".journal");
+    return new WebhookEventJournal(file, Duration.ofHours(JOURNAL_RETENTION_HOURS), JOURNAL_MAX_BYTES, JOURNAL_MAX_EVENTS);
+  }
+
+  private static Executor createDispatcher() {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(QUEUE_SIZE),
+      new NamingThreadFactory(new DaemonThreadFactory(), "SonarQube webhook"));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
 
   @Override
   public String getIconFileName() {
@@ -69,51 +166,283 @@ public class SonarQubeWebHook implements UnprotectedRootAction {
 
   @RequirePOST
   public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
-    String payload = IOUtils.toString(req.getReader());
-
     LOGGER.info("Received POST from " + req.getRemoteHost());
+    // SonarQube signs the bytes it sends, which are UTF-8
+    byte[] body = req.getContentLengthLong() <= MAX_PAYLOAD_BYTES ? readBody(req.getInputStream()) : null;
+    if (body == null) {
+      LOGGER.warning(() -> "Rejected webhook payload larger than " + MAX_PAYLOAD_BYTES + " bytes from " + req.getRemoteHost());
+      rsp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Payload too large");
+      return;
+    }
+
+    Payload payload;
     try {
-      JSONObject jsonObject = validate(payload);
-      LOGGER.fine(() -> "Full details of the POST was " + jsonObject.toString());
+      payload = Payload.parse(body);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, e, () -> "Invalid payload " + new String(body, StandardCharsets.UTF_8));
+      rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON Payload");
+      return;
+    }
+    LOGGER.fine(() -> "Full details of the POST was " + payload.getPayloadAsString());
 
-      WebhookEvent event = new WebhookEvent(new Payload(payload, jsonObject), req.getHeader("X-Sonar-Webhook-HMAC-SHA256"));
+    WebhookEvent event = new WebhookEvent(payload, req.getHeader("X-Sonar-Webhook-HMAC-SHA256"));
+    eventCache.put(payload.taskId, event);
 
-      eventCache.put(event.payload.taskId, event);
+    if (!enqueue(event)) {
+      // steps starting from now will still find the event in the cache, the others need it to be sent again
+      rsp.setHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+      rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many webhook events waiting to be processed");
+      return;
+    }
+    rsp.setStatus(HttpServletResponse.SC_OK);
+  }
 
+  /**
+   * Reads the body into the buffer of the current thread, so that only its exact copy is allocated
+   *
+   * @return null if the body is larger than {@link #MAX_PAYLOAD_BYTES}
+   */
+  @CheckForNull
+  private static byte[] readBody(InputStream in) throws IOException {
+    byte[] buffer = READ_BUFFERS.get();
+    int length = 0;
+    try {
+      while (true) {
+        if (length == buffer.length) {
+          if (length > MAX_PAYLOAD_BYTES) {
+            return null;
+          }
+          // one more byte than allowed, to tell a body of the maximum size from a larger one
+          buffer = Arrays.copyOf(buffer, (int) Math.min(2L * length, MAX_PAYLOAD_BYTES + 1L));
+        }
+        int read = in.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          return length > MAX_PAYLOAD_BYTES ? null : Arrays.copyOf(buffer, length);
+        }
+        length += read;
+      }
+    } finally {
+      if (buffer.length <= MAX_RETAINED_BUFFER_BYTES) {
+        READ_BUFFERS.set(buffer);
+      }
+    }
+  }
+
+  /**
+   * Called by the dispatcher, to keep disk writes out of the request thread. Only the events which a step waits for
+   * are journaled: anyone can post events. Steps resumed after a restart ask SonarQube for the other tasks.
+   */
+  private void journal(WebhookEvent event) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.append(event.payload.taskId, event.payload.body, event.receivedSignature);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, e, () -> "Unable to journal webhook event for task " + event.payload.taskId);
+    }
+  }
+
+  private boolean enqueue(WebhookEvent event) {
+    pendingEvents.incrementAndGet();
+    try {
+      dispatcher.execute(() -> {
+        try {
+          dispatch(event);
+        } finally {
+          pendingEvents.decrementAndGet();
+          dispatchedEvents.incrementAndGet();
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      pendingEvents.decrementAndGet();
+      long rejected = rejectedEvents.incrementAndGet();
+      LOGGER.warning(() -> "Rejected webhook event for task " + event.payload.taskId + ", " + pendingEvents.get()
+        + " events are waiting to be processed (" + rejected + " rejected so far)");
+      return false;
+    }
+  }
+
+  private void dispatch(WebhookEvent event) {
+    Set<Consumer<WebhookEvent>> listeners = taskListeners.get(event.payload.taskId);
+    if (listeners != null) {
+      journal(event);
+      verifyWithInstallationSecrets(event);
       for (Consumer<WebhookEvent> listener : listeners) {
-        listener.accept(event);
+        notifyListener(listener, event);
       }
-    } catch (JSONException e) {
-      LOGGER.log(Level.WARNING, e, () -> "Invalid payload " + payload);
-      rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON Payload");
     }
-    rsp.setStatus(HttpServletResponse.SC_OK);
+    for (Consumer<WebhookEvent> listener : globalListeners) {
+      notifyListener(listener, event);
+    }
   }
 
-  private static JSONObject validate(String payload) {
-    return JSONObject.fromObject(payload);
+  /**
+   * Checks the signature of the event with the webhook secrets of the installations, once for all the steps waiting
+   * for the event. Steps still resolve their own credential, and reuse the check only if it holds the same secret, see
+   * {@link WebhookEvent#verify(String, StringCredentials)}. Credentials come from {@link WebhookSecretResolver}, so
+   * events only cost the signature checks.
+   */
+  private static void verifyWithInstallationSecrets(WebhookEvent event) {
+    try {
+      Set<String> secretIds = new HashSet<>();
+      for (SonarInstallation installation : SonarInstallation.all()) {
+        String secretId = installation.getWebhookSecretId();
+        if (secretId != null && !secretId.isEmpty() && secretIds.add(secretId)) {
+          StringCredentials credentials = WebhookSecretResolver.resolveGlobal(secretId);
+          if (credentials != null) {
+            event.verify(secretId, credentials);
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, e, () -> "Unable to check the signature of webhook event for task " + event.payload.taskId);
+    }
+  }
+
+  private static void notifyListener(Consumer<WebhookEvent> listener, WebhookEvent event) {
+    try {
+      listener.accept(event);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, e, () -> "Failed to process webhook event for task " + event.payload.taskId);
+    }
+  }
+
+  /**
+   * @return number of events received and not processed yet
+   */
+  public int getPendingEvents() {
+    return pendingEvents.get();
+  }
+
+  /**
+   * @return number of events processed since startup
+   */
+  public long getDispatchedEvents() {
+    return dispatchedEvents.get();
+  }
+
+  /**
+   * @return number of events answered with 503 since startup, because too many were waiting to be processed
+   */
+  public long getRejectedEvents() {
+    return rejectedEvents.get();
   }
 
   public static SonarQubeWebHook get() {
     return Jenkins.get().getExtensionList(RootAction.class).get(SonarQubeWebHook.class);
   }
 
+  /**
+   * Registers a listener for the events of all tasks. Prefer {@link #addListener(String, Consumer)} when waiting for a
+   * given task.
+   */
   public void addListener(Consumer<WebhookEvent> l) {
-    listeners.add(l);
+    globalListeners.add(l);
   }
 
   public void removeListener(Consumer<WebhookEvent> l) {
-    listeners.remove(l);
+    globalListeners.remove(l);
+  }
+
+  /**
+   * Registers a listener for the events of the given compute engine task only
+   */
+  public void addListener(String taskId, Consumer<WebhookEvent> l) {
+    taskListeners.compute(taskId, (id, listeners) -> {
+      Set<Consumer<WebhookEvent>> result = listeners != null ? listeners : ConcurrentHashMap.newKeySet();
+      result.add(l);
+      return result;
+    });
+  }
+
+  /**
+   * @return true if the listener was removed by this call, which happens only once even when called concurrently
+   */
+  public boolean removeListener(String taskId, Consumer<WebhookEvent> l) {
+    boolean[] removed = new boolean[1];
+    taskListeners.computeIfPresent(taskId, (id, listeners) -> {
+      removed[0] = listeners.remove(l);
+      return listeners.isEmpty() ? null : listeners;
+    });
+    return removed[0];
+  }
+
+  public boolean isListening(String taskId, Consumer<WebhookEvent> l) {
+    Set<Consumer<WebhookEvent>> listeners = taskListeners.get(taskId);
+    return listeners != null && listeners.contains(l);
+  }
+
+  @VisibleForTesting
+  boolean hasListeners() {
+    return !taskListeners.isEmpty() || !globalListeners.isEmpty();
   }
 
+  @VisibleForTesting
+  void clearListeners() {
+    taskListeners.clear();
+    globalListeners.clear();
+  }
+
+  /**
+   * @return the last event received for the task, looked up in the journal if it was received before a restart
+   */
   @Nullable
   public WebhookEvent getWebhookEventForTaskId(String taskId) {
-    return eventCache.getIfPresent(taskId);
+    WebhookEvent event = eventCache.getIfPresent(taskId);
+    if (event != null || journal == null) {
+      return event;
+    }
+    try {
+      WebhookEventJournal.Record journaled = journal.get(taskId);
+      if (journaled == null) {
+        return null;
+      }
+      event = new WebhookEvent(Payload.parse(journaled.getPayload()), journaled.getSignature());
+      eventCache.put(taskId, event);
+      return event;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, e, () -> "Unable to read journaled webhook event for task " + taskId);
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  void compactJournal() throws IOException {
+    if (journal != null) {
+      journal.compact();
+    }
+  }
+
+  /**
+   * Drops the journaled events which are no longer needed
+   */
+  @Extension
+  public static final class JournalCompaction extends AsyncPeriodicWork {
+    public JournalCompaction() {
+      super("SonarQube webhook journal compaction");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+      return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException {
+      SonarQubeWebHook.get().compactJournal();
+    }
   }
 
   static final class WebhookEvent {
     private final Payload payload;
     private final String receivedSignature;
+    /**
+     * Signature checks, by webhook secret. Not by credential id: the same id may resolve to different credentials
+     * depending on the context of the step.
+     */
+    private final ConcurrentMap<Secret, Boolean> verifications = new ConcurrentHashMap<>();
 
     WebhookEvent(Payload payload, String receivedSignature) {
       this.payload = payload;
@@ -127,31 +456,71 @@ public class SonarQubeWebHook implements UnprotectedRootAction {
     public String getReceivedSignature() {
       return receivedSignature;
     }
+
+    @VisibleForTesting
+    boolean isVerifiedWith(Secret secret) {
+      return verifications.containsKey(secret);
+    }
+
+    /**
+     * Checks the signature of the received body with the secret of the credentials, unless already done for the same
+     * secret
+     *
+     * @param secretId id of the credentials, only used to reuse the keys prepared for previous events
+     */
+    boolean verify(String secretId, StringCredentials credentials) {
+      return verifications.computeIfAbsent(credentials.getSecret(),
+        secret -> WebhookSignatures.isValid(secretId, secret.getPlainText(), receivedSignature, payload.body));
+    }
   }
 
   static final class Payload {
+    private static final String TASK_ID = "taskId";
+    private static final String STATUS = "status";
+    private static final String PROJECT_NAME = "project.name";
+    private static final String PROJECT_URL = "project.url";
+    private static final String QUALITY_GATE_STATUS = "qualityGate.status";
 
-    private final String payloadAsString;
+    /**
+     * As received, to check its signature
+     */
+    private final byte[] body;
     private final String taskId;
     private final String componentName;
     private final String taskStatus;
     private final String qualityGateStatus;
     private final String dashboardUrl;
 
-    Payload(String payloadAsString, JSONObject json) {
-      this.payloadAsString = payloadAsString;
-      this.taskId = json.getString("taskId");
-      this.taskStatus = json.getString("status");
-      JSONObject project = json.getJSONObject("project");
-      this.componentName = project.getString("name");
-      this.dashboardUrl = project.getString("url");
+    private Payload(byte[] body, Map<String, String> fields) throws IOException {
+      this.body = body;
+      this.taskId = required(fields, TASK_ID);
+      this.taskStatus = required(fields, STATUS);
+      this.componentName = required(fields, PROJECT_NAME);
+      this.dashboardUrl = required(fields, PROJECT_URL);
       if (CETask.STATUS_SUCCESS.equals(getTaskStatus())) {
-        this.qualityGateStatus = json.has("qualityGate") ? json.getJSONObject("qualityGate").getString("status") : "NONE";
+        this.qualityGateStatus = fields.getOrDefault(QUALITY_GATE_STATUS, "NONE");
       } else {
         this.qualityGateStatus = null;
       }
     }
 
+    /**
+     * Reads the fields used by the steps from the UTF-8 body, without building the whole JSON document
+     */
+    static Payload parse(byte[] body) throws IOException {
+      Map<String, String> fields = JsonFieldReader.read(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8),
+        TASK_ID, STATUS, PROJECT_NAME, PROJECT_URL, QUALITY_GATE_STATUS);
+      return new Payload(body, fields);
+    }
+
+    private static String required(Map<String, String> fields, String path) throws IOException {
+      String value = fields.get(path);
+      if (value == null) {
+        throw new IOException("Missing " + path);
+      }
+      return value;
+    }
+
     String getTaskId() {
       return taskId;
     }
@@ -173,7 +542,7 @@ public class SonarQubeWebHook implements UnprotectedRootAction {
     }
 
     String getPayloadAsString() {
-      return payloadAsString;
+      return new String(body, StandardCharsets.UTF_8);
     }
 
   }
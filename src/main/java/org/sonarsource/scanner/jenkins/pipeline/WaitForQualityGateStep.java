@@ -24,6 +24,7 @@ import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
 import hudson.Extension;
@@ -41,6 +42,7 @@ import hudson.plugins.sonar.action.SonarAnalysisAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.SQProjectResolver;
 import hudson.plugins.sonar.client.WsClient;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.security.ACL;
@@ -56,13 +58,16 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import jenkins.model.Jenkins;
-import org.apache.commons.codec.digest.HmacAlgorithms;
-import org.apache.commons.codec.digest.HmacUtils;
+import jenkins.util.Timer;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
@@ -83,6 +88,11 @@ public class WaitForQualityGateStep extends Step implements Serializable {
   public static class QGStatus implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Status returned when the timeout of the step expires before the quality gate is known
+     */
+    public static final String TIMEOUT = "TIMEOUT";
+
     private final String status;
 
     public QGStatus(String status) {
@@ -102,6 +112,9 @@ public class WaitForQualityGateStep extends Step implements Serializable {
   private boolean abortPipeline;
   private String credentialsId;
   private String webhookSecretId;
+  private long timeout;
+  private boolean poll;
+  private long pollUntil;
 
   @DataBoundConstructor
   public WaitForQualityGateStep(boolean abortPipeline) {
@@ -155,12 +168,49 @@ public class WaitForQualityGateStep extends Step implements Serializable {
     this.credentialsId = Util.fixEmpty(credentialsId);
   }
 
+  /**
+   * @return maximum number of seconds to wait for the quality gate, 0 to wait until it is known
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  @DataBoundSetter
+  public void setTimeout(long timeout) {
+    this.timeout = Math.max(0, timeout);
+  }
+
+  /**
+   * @return whether SonarQube is also polled, in case the webhook never reaches Jenkins
+   */
+  public boolean isPoll() {
+    return poll;
+  }
+
+  @DataBoundSetter
+  public void setPoll(boolean poll) {
+    this.poll = poll;
+  }
+
+  /**
+   * @return number of seconds during which SonarQube is polled in case the webhook doesn't come, 0 to poll for the
+   * whole wait
+   */
+  public long getPollUntil() {
+    return pollUntil;
+  }
+
+  @DataBoundSetter
+  public void setPollUntil(long pollUntil) {
+    this.pollUntil = Math.max(0, pollUntil);
+  }
+
   @Override
   public StepExecution start(StepContext context) throws Exception {
     return new Execution(this, context);
   }
 
-  private static class Execution extends StepExecution implements Consumer<SonarQubeWebHook.WebhookEvent> {
+  private static class Execution extends StepExecution implements Consumer<SonarQubeWebHook.WebhookEvent>, FallbackPoller.Listener {
 
     private static final String PLEASE_USE_THE_WITH_SONAR_QUBE_ENV_WRAPPER_TO_RUN_YOUR_ANALYSIS = "Please use the 'withSonarQubeEnv' wrapper to run your analysis.";
 
@@ -168,6 +218,12 @@ public class WaitForQualityGateStep extends Step implements Serializable {
 
     private WaitForQualityGateStep step;
     String dashboardUrl;
+    /**
+     * Wall clock deadlines, kept across restarts, 0 if none
+     */
+    private long timeoutAt;
+    private long pollUntilAt;
+    private transient List<ScheduledFuture<?>> deadlines;
 
     public Execution(WaitForQualityGateStep step, StepContext context) {
       super(context);
@@ -175,22 +231,35 @@ public class WaitForQualityGateStep extends Step implements Serializable {
     }
 
     @Override
-    public boolean start() {
+    public boolean start() throws IOException {
       processStepParameters();
-
-      if (!checkTaskCompleted()) {
-        // Check if we received a webhook event after initially checking with the installation.
-        SonarQubeWebHook.WebhookEvent webhookEvent = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
-        if (webhookEvent != null) {
-          validateWebhookAndCheckQualityGateIfValid(webhookEvent, true);
-          return true;
-        } else {
-          getContextClass(FlowNode.class).addAction(new PauseAction("SonarQube analysis"));
+      long now = System.currentTimeMillis();
+      timeoutAt = step.timeout > 0 ? now + TimeUnit.SECONDS.toMillis(step.timeout) : 0;
+      pollUntilAt = step.pollUntil > 0 ? now + TimeUnit.SECONDS.toMillis(step.pollUntil) : 0;
+
+      // paused before listening: an event dispatched right away ends the pause, like any other
+      FlowNode node = getContextClass(FlowNode.class);
+      node.addAction(new PauseAction("SonarQube analysis"));
+      SonarQubeWebHook.get().addListener(step.taskId, this);
+      // The webhook may have been received before the step started to listen
+      SonarQubeWebHook.WebhookEvent webhookEvent = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
+      if (webhookEvent != null) {
+        if (!stopWaiting()) {
+          // the event was dispatched to the step in the meantime, which completes it
           return false;
         }
-      } else {
+        PauseAction.endCurrentPause(node);
+        validateWebhookAndCheckQualityGateIfValid(webhookEvent, true);
         return true;
       }
+
+      log("Checking status of SonarQube task '%s' on server '%s'", step.taskId, step.getInstallationName());
+      String token = getToken();
+      waitInBackground(token);
+      // the first check doesn't hold the CPS VM thread either: it completes the step from the HTTP client callback
+      SQProjectResolver resolver = new SQProjectResolver(new HttpClient(OkHttpClientSingleton.getInstance()));
+      checkInBackground(resolver.fetchAsync(step.getServerUrl(), token, step.getTaskId()), null);
+      return false;
     }
 
     private void processStepParameters() {
@@ -236,25 +305,6 @@ public class WaitForQualityGateStep extends Step implements Serializable {
       getContextClass(TaskListener.class).getLogger().println();
     }
 
-    private boolean checkTaskCompleted() {
-      SonarQubeWebHook.get().addListener(this);
-
-      log("Checking status of SonarQube task '%s' on server '%s'", step.taskId, step.getInstallationName());
-      SonarInstallation inst = getInstallation();
-      WsClient wsClient = new WsClient(new HttpClient(OkHttpClientSingleton.getInstance()),
-        step.getServerUrl(), SonarUtils.getAuthenticationToken(getContextClass(Run.class), inst, step.credentialsId));
-      WsClient.CETask ceTask = wsClient.getCETask(step.getTaskId());
-
-      ProjectInformation projectInformation = new ProjectInformation();
-      projectInformation.setUrl(dashboardUrl);
-
-      projectInformation.setCeStatus(ceTask.getStatus());
-      projectInformation.setCeUrl(ceTask.getUrl());
-      projectInformation.setName(ceTask.getComponentName());
-
-      return checkQualityGate(projectInformation, () -> wsClient.requestQualityGateStatus(ceTask.getAnalysisId()), true);
-    }
-
     private void handleQGStatus(ProjectInformation projectInformation) {
       getContextClass(Run.class).addAction(projectInformation);
 
@@ -268,24 +318,152 @@ public class WaitForQualityGateStep extends Step implements Serializable {
 
     @Override
     public void onResume() {
-      SonarQubeWebHook.get().addListener(this);
+      SonarQubeWebHook.get().addListener(step.taskId, this);
+      // The webhook may have been received before the restart, while the step was not listening
+      SonarQubeWebHook.WebhookEvent event = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
+      if (event != null) {
+        accept(event);
+        return;
+      }
+      // Many steps may be resumed at once, the coordinator spreads their requests to SonarQube
+      log("Checking status of SonarQube task '%s' on server '%s'", step.taskId, step.getInstallationName());
+      String token = getToken();
+      waitInBackground(token);
+      checkInBackground(ResumeCoordinator.get().check(step.getServerUrl(), token, step.getTaskId()), "Unable to restore step");
+    }
+
+    /**
+     * Completes the step when the task turns out to be finished, unless a webhook, the poller or a deadline did it first
+     *
+     * @param errorMessage message of the failure wrapping errors of the check, null to fail with them as they are
+     */
+    private void checkInBackground(CompletableFuture<ProjectInformation> check, @CheckForNull String errorMessage) {
+      check.whenComplete((projectInformation, e) -> {
+        if (e == null && !isFinished(projectInformation)) {
+          // the webhook or the poller will tell when it is
+          return;
+        }
+        if (!stopWaiting()) {
+          // completed by a webhook, or stopped, in the meantime
+          return;
+        }
+        if (e != null) {
+          Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+          getContext().onFailure(errorMessage != null ? new IllegalStateException(errorMessage, cause) : cause);
+          return;
+        }
+        try {
+          PauseAction.endCurrentPause(getContextClass(FlowNode.class));
+          projectInformation.setUrl(dashboardUrl);
+          checkQualityGate(projectInformation, projectInformation::getStatus, true);
+        } catch (IOException | RuntimeException x) {
+          getContext().onFailure(x);
+        }
+      });
+    }
+
+    @Override
+    public void onTaskCompleted(ProjectInformation projectInformation) {
+      if (!stopWaiting()) {
+        return;
+      }
       try {
-        checkTaskCompleted();
-      } catch (Exception e) {
-        throw new IllegalStateException("Unable to restore step", e);
+        PauseAction.endCurrentPause(getContextClass(FlowNode.class));
+        projectInformation.setUrl(dashboardUrl);
+        checkQualityGate(projectInformation, projectInformation::getStatus, false);
+      } catch (IOException | RuntimeException e) {
+        getContext().onFailure(e);
+      }
+    }
+
+    /**
+     * Polls SonarQube if asked to, in case the webhook is not configured or never reaches Jenkins, and schedules the
+     * deadlines of the step on the Jenkins timer: they don't hold any thread while waiting.
+     */
+    private void waitInBackground(@CheckForNull String token) {
+      long now = System.currentTimeMillis();
+      if (step.poll && (pollUntilAt == 0 || now < pollUntilAt)) {
+        FallbackPoller.get().watch(step.getServerUrl(), token, step.getTaskId(), this);
+        if (pollUntilAt != 0) {
+          scheduleAt(pollUntilAt, now, () -> FallbackPoller.get().unwatch(step.taskId, this));
+        }
+      }
+      if (timeoutAt != 0) {
+        scheduleAt(timeoutAt, now, this::onTimeout);
+      }
+    }
+
+    private synchronized void scheduleAt(long deadline, long now, Runnable task) {
+      if (deadlines == null) {
+        deadlines = new ArrayList<>();
       }
+      deadlines.add(Timer.get().schedule(task, Math.max(0, deadline - now), TimeUnit.MILLISECONDS));
+    }
+
+    private void onTimeout() {
+      if (!stopWaiting()) {
+        return;
+      }
+      try {
+        PauseAction.endCurrentPause(getContextClass(FlowNode.class));
+        log("Timeout reached while waiting for SonarQube task '%s'", step.taskId);
+        if (step.isAbortPipeline()) {
+          getContext().onFailure(new AbortException("Pipeline aborted due to quality gate timeout"));
+        } else {
+          getContext().onSuccess(new QGStatus(QGStatus.TIMEOUT));
+        }
+      } catch (IOException | RuntimeException e) {
+        getContext().onFailure(e);
+      }
+    }
+
+    /**
+     * The webhook, the poller, the checks of SonarQube and the deadlines may all try to complete the step at the same
+     * time: only the one which stops the step from listening to the webhook may complete it.
+     *
+     * @return false if the step was not waiting anymore
+     */
+    private boolean stopWaiting() {
+      boolean stopped = SonarQubeWebHook.get().removeListener(step.taskId, this);
+      FallbackPoller.get().unwatch(step.taskId, this);
+      synchronized (this) {
+        if (deadlines != null) {
+          deadlines.forEach(d -> d.cancel(false));
+          deadlines = null;
+        }
+      }
+      return stopped;
+    }
+
+    private static boolean isFinished(ProjectInformation projectInformation) {
+      switch (projectInformation.getCeStatus().toUpperCase(Locale.US)) {
+        case WsClient.CETask.STATUS_SUCCESS:
+        case WsClient.CETask.STATUS_FAILURE:
+        case WsClient.CETask.STATUS_CANCELED:
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    @CheckForNull
+    private String getToken() {
+      return SonarUtils.getAuthenticationToken(getContextClass(Run.class), getInstallation(), step.credentialsId);
     }
 
     @Override
     public void stop(Throwable cause) throws Exception {
       PauseAction.endCurrentPause(getContextClass(FlowNode.class));
-      SonarQubeWebHook.get().removeListener(this);
+      stopWaiting();
       getContext().onFailure(cause);
     }
 
     @Override
     public void accept(SonarQubeWebHook.WebhookEvent event) {
       if (event.getPayload().getTaskId().equals(step.taskId)) {
+        if (!stopWaiting()) {
+          return;
+        }
         try {
           PauseAction.endCurrentPause(getContextClass(FlowNode.class));
           validateWebhookAndCheckQualityGateIfValid(event, false);
@@ -297,7 +475,6 @@ public class WaitForQualityGateStep extends Step implements Serializable {
     }
 
     private void validateWebhookAndCheckQualityGateIfValid(SonarQubeWebHook.WebhookEvent event, boolean onStart) {
-      SonarQubeWebHook.get().removeListener(this);
       if (validateWebhook(event)) {
         ProjectInformation projectInformation = new ProjectInformation();
         SonarQubeWebHook.Payload payload = event.getPayload();
@@ -342,10 +519,16 @@ public class WaitForQualityGateStep extends Step implements Serializable {
 
     private boolean validateWebhook(SonarQubeWebHook.WebhookEvent event) {
       if (step.webhookSecretId != null && !step.webhookSecretId.isEmpty()) {
-        StringCredentials webhookSecret = CredentialsProvider.findCredentialById(step.webhookSecretId, StringCredentials.class, getContextClass(Run.class));
-        CredentialsProvider.track(getContextClass(Run.class), webhookSecret);
+        Run<?, ?> run = getContextClass(Run.class);
+        StringCredentials webhookSecret = WebhookSecretResolver.resolve(step.webhookSecretId, run);
+        if (webhookSecret == null || !event.verify(step.webhookSecretId, webhookSecret)) {
+          // the credential may have changed since it was resolved, in a store whose changes are not noticed
+          webhookSecret = WebhookSecretResolver.resolveAgain(step.webhookSecretId, run);
+        }
+        CredentialsProvider.track(run, webhookSecret);
         if (webhookSecret != null) {
-          boolean isValidPayload = isValidSignature(event.getReceivedSignature(), event.getPayload().getPayloadAsString(), webhookSecret.getSecret().getPlainText());
+          // Usually already checked when the event was received, if the installation uses the same secret
+          boolean isValidPayload = event.verify(step.webhookSecretId, webhookSecret);
           if (!isValidPayload) {
             log("The incoming webhook didn't match the configured webhook secret");
             getContext().onFailure(new AbortException("Pipeline aborted due to failed webhook verification "));
@@ -362,12 +545,6 @@ public class WaitForQualityGateStep extends Step implements Serializable {
       return true;
     }
 
-    private static boolean isValidSignature(String signature, String payload, String secret) {
-      // See Apache commons-codec
-      String expectedSignature = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, secret).hmacHex(payload);
-      return Objects.equals(expectedSignature, signature);
-    }
-
     private SonarInstallation getInstallation() {
       return Optional.ofNullable(SonarInstallation.get(step.getInstallationName()))
         .orElseThrow(() -> new IllegalStateException("Invalid installation name: " + step.getInstallationName()));
@@ -0,0 +1,433 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of the webhook events received, so that the events received shortly before a restart of the
+ * controller are still known by the quality gate steps resumed after it, without asking SonarQube.
+ * <p>
+ * Each record is {@code length | receivedAt | taskId | signature | payload | crc32}. Only the position of the last
+ * record of each task is kept in memory. Records of tasks received again, or older than the retention, are dropped by
+ * {@link #compact()}. The number of events and the size of the file are capped: the oldest events make room for the
+ * new ones. A record partially written when the controller stopped is detected by its checksum and
+ * truncated on load.
+ * <p>
+ * Payloads are kept as the exact bytes received, whose signature is checked again when the event is replayed.
+ * <p>
+ * Records are not forced to disk: they survive a restart of the controller, not a crash of the OS.
+ */
+final class WebhookEventJournal {
+  private static final Logger LOGGER = Logger.getLogger(WebhookEventJournal.class.getName());
+  private static final int MAGIC = 0x53514A31;
+  private static final int HEADER_SIZE = Integer.BYTES;
+  /**
+   * length and checksum
+   */
+  private static final int RECORD_OVERHEAD = Integer.BYTES * 2;
+  private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+  /**
+   * Don't bother compacting below this amount of dead records
+   */
+  private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+  static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  static final int DEFAULT_MAX_EVENTS = 10_000;
+
+  private final Path file;
+  private final long retentionMillis;
+  private final LongSupplier clock;
+  private final long maxBytes;
+  private final int maxEvents;
+
+  private FileChannel channel;
+  /**
+   * In the order of the records in the file, which is the order in which the events were last received
+   */
+  private final Map<String, Entry> index = new LinkedHashMap<>();
+  private long size;
+  private long deadBytes;
+
+  WebhookEventJournal(File file, Duration retention) {
+    this(file, retention, DEFAULT_MAX_BYTES, DEFAULT_MAX_EVENTS);
+  }
+
+  WebhookEventJournal(File file, Duration retention, long maxBytes, int maxEvents) {
+    this(file, retention, maxBytes, maxEvents, System::currentTimeMillis);
+  }
+
+  WebhookEventJournal(File file, Duration retention, LongSupplier clock) {
+    this(file, retention, DEFAULT_MAX_BYTES, DEFAULT_MAX_EVENTS, clock);
+  }
+
+  WebhookEventJournal(File file, Duration retention, long maxBytes, int maxEvents, LongSupplier clock) {
+    this.file = file.toPath();
+    this.retentionMillis = retention.toMillis();
+    this.maxBytes = maxBytes;
+    this.maxEvents = maxEvents;
+    this.clock = clock;
+  }
+
+  synchronized void append(String taskId, byte[] payload, @Nullable String signature) throws IOException {
+    open();
+    long receivedAt = clock.getAsLong();
+    ByteBuffer record = encode(receivedAt, taskId, payload, signature);
+    int length = record.remaining();
+    if (HEADER_SIZE + length > maxBytes) {
+      throw new IOException("Webhook event of task " + taskId + " is larger than the journal: " + length + " bytes");
+    }
+    Entry previous = index.remove(taskId);
+    if (previous != null) {
+      deadBytes += previous.length;
+    }
+    // the oldest events make room for the new one
+    Iterator<Entry> oldest = index.values().iterator();
+    while (oldest.hasNext() && (index.size() >= maxEvents || HEADER_SIZE + liveBytes() + length > maxBytes)) {
+      deadBytes += oldest.next().length;
+      oldest.remove();
+    }
+    if (size + length > maxBytes) {
+      compact(true);
+    }
+
+    long offset = size;
+    while (record.hasRemaining()) {
+      channel.write(record, offset + record.position());
+    }
+    size += length;
+    index.put(taskId, new Entry(offset, length, receivedAt));
+  }
+
+  private long liveBytes() {
+    return size - HEADER_SIZE - deadBytes;
+  }
+
+  /**
+   * @return the last event received for the task, unless older than the retention
+   */
+  @CheckForNull
+  synchronized Record get(String taskId) throws IOException {
+    open();
+    Entry entry = index.get(taskId);
+    if (entry == null) {
+      return null;
+    }
+    if (isExpired(entry)) {
+      index.remove(taskId);
+      deadBytes += entry.length;
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+        throw new EOFException("Truncated record for task " + taskId + " in " + file);
+      }
+    }
+    buffer.flip();
+    return decode(buffer);
+  }
+
+  /**
+   * Rewrites the file without the records of tasks received again, nor those older than the retention, when they
+   * take enough space
+   */
+  synchronized void compact() throws IOException {
+    open();
+    compact(false);
+  }
+
+  /**
+   * @param force whether to rewrite the file even if there are few records to drop, to make room for a new one
+   */
+  private void compact(boolean force) throws IOException {
+    index.values().removeIf(entry -> {
+      if (isExpired(entry)) {
+        deadBytes += entry.length;
+        return true;
+      }
+      return false;
+    });
+    if (!force && (deadBytes < MIN_COMPACTION_BYTES || deadBytes < size / 2)) {
+      return;
+    }
+
+    long before = size;
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    List<Map.Entry<String, Entry>> live = new ArrayList<>(index.entrySet());
+    live.sort(Comparator.comparingLong(e -> e.getValue().offset));
+    Map<String, Entry> newIndex = new LinkedHashMap<>();
+    long newSize = HEADER_SIZE;
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(out, header(), 0);
+      for (Map.Entry<String, Entry> e : live) {
+        Entry entry = e.getValue();
+        long transferred = 0;
+        while (transferred < entry.length) {
+          transferred += channel.transferTo(entry.offset + transferred, entry.length - transferred, out.position(newSize + transferred));
+        }
+        newIndex.put(e.getKey(), new Entry(newSize, entry.length, entry.receivedAt));
+        newSize += entry.length;
+      }
+      out.force(true);
+    }
+    channel.close();
+    channel = null;
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    index.clear();
+    index.putAll(newIndex);
+    size = newSize;
+    deadBytes = 0;
+    long after = size;
+    LOGGER.fine(() -> "Compacted " + file + " from " + before + " to " + after + " bytes");
+  }
+
+  synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  synchronized int size() throws IOException {
+    open();
+    return index.size();
+  }
+
+  synchronized long fileSize() throws IOException {
+    open();
+    return size;
+  }
+
+  private boolean isExpired(Entry entry) {
+    return clock.getAsLong() - entry.receivedAt > retentionMillis;
+  }
+
+  private void open() throws IOException {
+    if (channel != null) {
+      return;
+    }
+    Files.createDirectories(file.getParent());
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    index.clear();
+    deadBytes = 0;
+    if (channel.size() < HEADER_SIZE) {
+      channel.truncate(0);
+      writeFully(channel, header(), 0);
+      size = HEADER_SIZE;
+      return;
+    }
+    size = load();
+    if (size < channel.size()) {
+      LOGGER.warning(() -> "Dropping the incomplete or corrupted end of " + file);
+      channel.truncate(size);
+    }
+    if (size < HEADER_SIZE) {
+      writeFully(channel, header(), 0);
+      size = HEADER_SIZE;
+    }
+  }
+
+  /**
+   * @return the end of the last valid record
+   */
+  private long load() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+      if (in.readInt() != MAGIC) {
+        LOGGER.warning(() -> "Ignoring " + file + ", which is not a webhook event journal");
+        return 0;
+      }
+      long offset = HEADER_SIZE;
+      while (true) {
+        Entry entry;
+        String taskId;
+        try {
+          int bodyLength = in.readInt();
+          if (bodyLength <= 0 || bodyLength > MAX_RECORD_SIZE) {
+            return offset;
+          }
+          byte[] body = new byte[bodyLength];
+          in.readFully(body);
+          CRC32 crc = new CRC32();
+          crc.update(body);
+          if (in.readInt() != (int) crc.getValue()) {
+            return offset;
+          }
+          ByteBuffer buffer = ByteBuffer.wrap(body);
+          long receivedAt = buffer.getLong();
+          taskId = readString(buffer);
+          entry = new Entry(offset, bodyLength + RECORD_OVERHEAD, receivedAt);
+        } catch (EOFException e) {
+          return offset;
+        }
+        offset += entry.length;
+        if (isExpired(entry)) {
+          deadBytes += entry.length;
+          continue;
+        }
+        Entry previous = index.remove(taskId);
+        if (previous != null) {
+          deadBytes += previous.length;
+        }
+        index.put(taskId, entry);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, e, () -> "Unable to read " + file);
+      index.clear();
+      deadBytes = 0;
+      return 0;
+    }
+  }
+
+  private static ByteBuffer header() {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+    header.flip();
+    return header;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  private static ByteBuffer encode(long receivedAt, String taskId, byte[] payloadBytes, @Nullable String signature) {
+    byte[] taskIdBytes = taskId.getBytes(StandardCharsets.UTF_8);
+    byte[] signatureBytes = signature != null ? signature.getBytes(StandardCharsets.UTF_8) : null;
+    int bodyLength = Long.BYTES
+      + Integer.BYTES + taskIdBytes.length
+      + Integer.BYTES + (signatureBytes != null ? signatureBytes.length : 0)
+      + payloadBytes.length;
+    if (bodyLength > MAX_RECORD_SIZE) {
+      throw new IllegalArgumentException("Webhook payload of task " + taskId + " is too large: " + payloadBytes.length + " bytes");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(bodyLength + RECORD_OVERHEAD);
+    buffer.putInt(bodyLength);
+    buffer.putLong(receivedAt);
+    buffer.putInt(taskIdBytes.length).put(taskIdBytes);
+    if (signatureBytes != null) {
+      buffer.putInt(signatureBytes.length).put(signatureBytes);
+    } else {
+      buffer.putInt(-1);
+    }
+    buffer.put(payloadBytes);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), Integer.BYTES, bodyLength);
+    buffer.putInt((int) crc.getValue());
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * @param buffer a whole record, checksum checked on load
+   */
+  private static Record decode(ByteBuffer buffer) {
+    int bodyLength = buffer.getInt();
+    int bodyEnd = buffer.position() + bodyLength;
+    long receivedAt = buffer.getLong();
+    String taskId = readString(buffer);
+    String signature = readString(buffer);
+    byte[] payload = Arrays.copyOfRange(buffer.array(), buffer.position(), bodyEnd);
+    return new Record(receivedAt, taskId, payload, signature);
+  }
+
+  @CheckForNull
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
+
+  private static final class Entry {
+    private final long offset;
+    private final int length;
+    private final long receivedAt;
+
+    private Entry(long offset, int length, long receivedAt) {
+      this.offset = offset;
+      this.length = length;
+      this.receivedAt = receivedAt;
+    }
+  }
+
+  static final class Record {
+    private final long receivedAt;
+    private final String taskId;
+    private final byte[] payload;
+    private final String signature;
+
+    Record(long receivedAt, String taskId, byte[] payload, @Nullable String signature) {
+      this.receivedAt = receivedAt;
+      this.taskId = taskId;
+      this.payload = payload;
+      this.signature = signature;
+    }
+
+    long getReceivedAt() {
+      return receivedAt;
+    }
+
+    String getTaskId() {
+      return taskId;
+    }
+
+    /**
+     * @return the payload as received
+     */
+    byte[] getPayload() {
+      return payload;
+    }
+
+    @CheckForNull
+    String getSignature() {
+      return signature;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.builds.CredentialsParameterBinder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+/**
+ * Resolves the webhook secret credentials, so that looking them up is not repeated for every webhook event.
+ * <p>
+ * Credentials are cached per credential id and context: the installations resolve them globally, the steps in the
+ * context of their job. The cache is cleared when a credentials store is saved, and entries expire after
+ * {@code cacheSeconds} in case a credential changes in a store which is not saved by Jenkins.
+ */
+public final class WebhookSecretResolver {
+  private static final String PREFIX = WebhookSecretResolver.class.getName();
+  private static final long CACHE_SECONDS = SystemProperties.getLong(PREFIX + ".cacheSeconds", 300L);
+  private static final String GLOBAL_CONTEXT = "";
+  private static final Cache<Key, Optional<StringCredentials>> CREDENTIALS = Caffeine.newBuilder()
+    .maximumSize(1000)
+    .expireAfterWrite(CACHE_SECONDS, TimeUnit.SECONDS)
+    .build();
+
+  private WebhookSecretResolver() {
+  }
+
+  /**
+   * Resolves a webhook secret configured on an installation.
+   */
+  @CheckForNull
+  static StringCredentials resolveGlobal(String credentialsId) {
+    return CREDENTIALS.get(new Key(GLOBAL_CONTEXT, credentialsId), key -> Optional.ofNullable(CredentialsMatchers.firstOrNull(
+      CredentialsProvider.lookupCredentials(StringCredentials.class, Jenkins.get(), ACL.SYSTEM, Collections.emptyList()),
+      CredentialsMatchers.withId(credentialsId)))).orElse(null);
+  }
+
+  /**
+   * Resolves a webhook secret as seen by a build. Credentials bound to a build parameter are not cached, as they
+   * depend on the build.
+   */
+  @CheckForNull
+  static StringCredentials resolve(String credentialsId, Run<?, ?> run) {
+    if (isBoundToParameter(credentialsId, run)) {
+      return CredentialsProvider.findCredentialById(credentialsId, StringCredentials.class, run);
+    }
+    return CREDENTIALS.get(new Key(run.getParent().getFullName(), credentialsId),
+      key -> Optional.ofNullable(CredentialsProvider.findCredentialById(credentialsId, StringCredentials.class, run))).orElse(null);
+  }
+
+  /**
+   * Resolves a webhook secret as seen by a build, without using a previous resolution, which is replaced.
+   */
+  @CheckForNull
+  static StringCredentials resolveAgain(String credentialsId, Run<?, ?> run) {
+    CREDENTIALS.invalidate(new Key(run.getParent().getFullName(), credentialsId));
+    return resolve(credentialsId, run);
+  }
+
+  private static boolean isBoundToParameter(String credentialsId, Run<?, ?> run) {
+    CredentialsParameterBinder binder = run.getAction(CredentialsParameterBinder.class);
+    return binder != null && binder.forParameterName(credentialsId) != null;
+  }
+
+  @VisibleForTesting
+  static void clear() {
+    CREDENTIALS.invalidateAll();
+  }
+
+  /**
+   * Credentials are stored by the system provider, by folders and by users.
+   */
+  @Extension
+  public static class CredentialsChangeListener extends SaveableListener {
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+      if (o instanceof SystemCredentialsProvider || o instanceof ItemGroup || o instanceof User) {
+        clear();
+      }
+    }
+  }
+
+  private static final class Key {
+    private final String context;
+    private final String credentialsId;
+
+    private Key(String context, String credentialsId) {
+      this.context = context;
+      this.credentialsId = credentialsId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return context.equals(other.context) && credentialsId.equals(other.credentialsId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(context, credentialsId);
+    }
+  }
+}
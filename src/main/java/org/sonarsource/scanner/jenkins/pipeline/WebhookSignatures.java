@@ -0,0 +1,110 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Checks the HMAC-SHA256 signatures of the webhooks sent by SonarQube.
+ * <p>
+ * Initialized {@link Mac} instances are pooled per webhook secret credential id and fingerprint of the secret, so that
+ * credentials with the same id in different stores keep their own pool. Signatures are compared in constant time.
+ */
+final class WebhookSignatures {
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int MAX_POOLED_MACS = 8;
+  private static final Cache<String, PreparedKey> KEYS = Caffeine.newBuilder()
+    .maximumSize(1000)
+    .expireAfterAccess(1, TimeUnit.HOURS)
+    .build();
+
+  private WebhookSignatures() {
+  }
+
+  /**
+   * @param secretId id of the credential holding the secret, used to reuse the keys prepared for previous events
+   * @param signature hexadecimal HMAC-SHA256 signature received with the payload
+   */
+  static boolean isValid(String secretId, String secret, @Nullable String signature, byte[] payload) {
+    if (signature == null) {
+      return false;
+    }
+    byte[] received;
+    try {
+      received = Hex.decodeHex(signature);
+    } catch (DecoderException e) {
+      return false;
+    }
+    byte[] secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+    PreparedKey key = KEYS.get(secretId + ':' + fingerprint(secretBytes), k -> new PreparedKey(secretBytes));
+    return MessageDigest.isEqual(key.sign(payload), received);
+  }
+
+  private static String fingerprint(byte[] secret) {
+    try {
+      return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(secret));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static final class PreparedKey {
+    private final SecretKeySpec key;
+    private final BlockingQueue<Mac> macs = new ArrayBlockingQueue<>(MAX_POOLED_MACS);
+
+    private PreparedKey(byte[] secret) {
+      this.key = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    private byte[] sign(byte[] payload) {
+      Mac mac = macs.poll();
+      if (mac == null) {
+        mac = newMac();
+      }
+      // doFinal resets the Mac, ready for the next payload
+      byte[] signature = mac.doFinal(payload);
+      macs.offer(mac);
+      return signature;
+    }
+
+    private Mac newMac() {
+      try {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(key);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Unable to initialize " + ALGORITHM, e);
+      }
+    }
+  }
+}
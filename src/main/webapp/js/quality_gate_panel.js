@@ -0,0 +1,41 @@
+/*
+ * Reloads the SonarQube quality gate section of the job page while it is being refreshed in the background.
+ */
+(function () {
+  var POLL_INTERVAL_MS = 5000;
+  var MAX_POLLS = 60;
+
+  function isUpdating(panel) {
+    var content = panel.querySelector('.sonar-qg-panel-content');
+    return content !== null && content.getAttribute('data-updating') === 'true';
+  }
+
+  function poll(panel, count) {
+    if (count >= MAX_POLLS || !isUpdating(panel)) {
+      return;
+    }
+    setTimeout(function () {
+      var url = panel.getAttribute('data-url') + '?job=' + encodeURIComponent(panel.getAttribute('data-job'));
+      fetch(url, { credentials: 'same-origin' })
+        .then(function (rsp) {
+          return rsp.status === 200 ? rsp.text() : null;
+        })
+        .then(function (html) {
+          if (html !== null) {
+            panel.innerHTML = html;
+            poll(panel, count + 1);
+          }
+        })
+        .catch(function () {
+          // give up, the next page load will try again
+        });
+    }, POLL_INTERVAL_MS);
+  }
+
+  document.querySelectorAll('.sonar-qg-panel').forEach(function (panel) {
+    if (!panel.hasAttribute('data-polling')) {
+      panel.setAttribute('data-polling', 'true');
+      poll(panel, 0);
+    }
+  });
+})();
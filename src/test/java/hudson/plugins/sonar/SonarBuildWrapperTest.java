@@ -34,6 +34,7 @@ import hudson.plugins.sonar.action.SonarAnalysisAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.WsClient;
 import hudson.plugins.sonar.model.TriggersConfig;
+import hudson.plugins.sonar.utils.ServerVersionCache;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -63,6 +64,7 @@ public class SonarBuildWrapperTest extends SonarTestCase {
 
   @Before
   public void setUp() {
+    ServerVersionCache.get().invalidateAll();
     installation = spy(createTestInstallation());
     wrapper = new SonarBuildWrapper("local");
     stream = mock(PrintStream.class);
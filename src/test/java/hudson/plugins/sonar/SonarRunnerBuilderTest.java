@@ -30,6 +30,7 @@ import hudson.model.Run;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.WsClient;
 import hudson.plugins.sonar.utils.ExtendedArgumentListBuilder;
+import hudson.plugins.sonar.utils.ServerVersionCache;
 import hudson.scm.SCM;
 import hudson.util.ArgumentListBuilder;
 import java.io.File;
@@ -65,6 +66,7 @@ public class SonarRunnerBuilderTest extends SonarTestCase {
 
   @Before
   public void prepareMockWorkspace() throws IOException {
+    ServerVersionCache.get().invalidateAll();
     workspace = temp.newFolder();
     moduleDir = new File(workspace, "trunk");
     FileUtils.forceMkdir(moduleDir);
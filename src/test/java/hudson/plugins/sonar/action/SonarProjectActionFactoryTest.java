@@ -22,6 +22,10 @@ package hudson.plugins.sonar.action;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
+import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.QualityGateCache;
+import hudson.plugins.sonar.client.SQProjectResolver;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -31,7 +35,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class SonarProjectActionFactoryTest {
@@ -42,6 +49,7 @@ public class SonarProjectActionFactoryTest {
   public void setUp() {
     factory = new SonarProjectActionFactory();
     project = mock(AbstractProject.class);
+    QualityGateCache.get().invalidateAll();
   }
 
   @Test
@@ -109,6 +117,81 @@ public class SonarProjectActionFactoryTest {
     assertThat(actions).isEmpty();
   }
 
+  @Test
+  public void testQualityGateResolvedInBackground() {
+    SQProjectResolver resolver = mock(SQProjectResolver.class);
+    ProjectInformation proj = new ProjectInformation();
+    proj.setCeStatus("success");
+    when(resolver.resolveAll(anyList(), any())).thenReturn(Collections.singletonList(proj));
+    List<Runnable> tasks = new ArrayList<>();
+    factory = new SonarProjectActionFactory(resolver, tasks::add);
+
+    SonarAnalysisAction info = createBuildInfo("url1");
+    info.setServerUrl("http://sonar");
+    info.setCeTaskId("taskId");
+    AbstractBuild build = mock(AbstractBuild.class);
+    when(project.getLastCompletedBuild()).thenReturn(build);
+    when(build.getActions()).thenReturn(Collections.singletonList(info));
+
+    SonarProjectPageAction page = getSonarProjectPageAction(factory.createFor(project));
+    assertThat(page.getProjects()).isEmpty();
+    assertThat(page.isUpdating()).isTrue();
+    verifyNoInteractions(resolver);
+
+    assertThat(tasks).hasSize(1);
+    tasks.get(0).run();
+
+    page = getSonarProjectPageAction(factory.createFor(project));
+    assertThat(page.getProjects()).containsExactly(proj);
+    assertThat(page.isUpdating()).isFalse();
+    // the task is finished, so its quality gate is kept with the build
+    assertThat(info.getQualityGate()).isSameAs(proj);
+    assertThat(tasks).hasSize(1);
+  }
+
+  @Test
+  public void testPendingQualityGateSharedBetweenJobs() {
+    SQProjectResolver resolver = mock(SQProjectResolver.class);
+    ProjectInformation proj = new ProjectInformation();
+    proj.setCeStatus("pending");
+    when(resolver.resolveAll(anyList(), any())).thenReturn(Collections.singletonList(proj));
+    List<Runnable> tasks = new ArrayList<>();
+    factory = new SonarProjectActionFactory(resolver, tasks::add);
+
+    SonarAnalysisAction info = createBuildInfo("url1");
+    info.setServerUrl("http://sonar");
+    info.setCeTaskId("taskId");
+    AbstractBuild build = mock(AbstractBuild.class);
+    when(project.getLastCompletedBuild()).thenReturn(build);
+    when(build.getActions()).thenReturn(Collections.singletonList(info));
+
+    factory.createFor(project);
+    factory.createFor(project);
+    assertThat(tasks).hasSize(1);
+    tasks.get(0).run();
+
+    AbstractProject otherProject = mock(AbstractProject.class);
+    AbstractBuild otherBuild = mock(AbstractBuild.class);
+    when(otherProject.getLastCompletedBuild()).thenReturn(otherBuild);
+    when(otherBuild.getActions()).thenReturn(Collections.singletonList(info));
+
+    SonarProjectPageAction page = getSonarProjectPageAction(factory.createFor(otherProject));
+    assertThat(page.getProjects()).containsExactly(proj);
+    // still pending
+    assertThat(page.isUpdating()).isTrue();
+    assertThat(info.getQualityGate()).isNull();
+    assertThat(tasks).hasSize(1);
+  }
+
+  private static SonarProjectPageAction getSonarProjectPageAction(Collection<? extends Action> actions) {
+    for (Action a : actions) {
+      if (a instanceof SonarProjectPageAction) {
+        return (SonarProjectPageAction) a;
+      }
+    }
+    throw new AssertionError("No project page in " + actions);
+  }
+
   private static SonarAnalysisAction createBuildInfo(String url) {
     SonarAnalysisAction buildInfo = new SonarAnalysisAction("inst", "credId", null);
     buildInfo.setUrl(url);
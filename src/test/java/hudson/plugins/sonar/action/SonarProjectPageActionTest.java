@@ -22,11 +22,13 @@ package hudson.plugins.sonar.action;
 import hudson.plugins.sonar.client.ProjectInformation;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class SonarProjectPageActionTest {
   @Test
@@ -38,4 +40,17 @@ public class SonarProjectPageActionTest {
     SonarProjectPageAction projectPage = new SonarProjectPageAction(list);
     assertThat(projectPage.getProjects()).containsExactlyElementsOf(list);
   }
+
+  @Test
+  public void testUpdating() {
+    ProjectInformation done = mock(ProjectInformation.class);
+    when(done.getCeStatus()).thenReturn("success");
+    ProjectInformation pending = mock(ProjectInformation.class);
+    when(pending.getCeStatus()).thenReturn("pending");
+
+    assertThat(new SonarProjectPageAction(null, null, true).isUpdating()).isTrue();
+    assertThat(new SonarProjectPageAction(null, null, true).getProjects()).isEmpty();
+    assertThat(new SonarProjectPageAction(null, Collections.singletonList(done), false).isUpdating()).isFalse();
+    assertThat(new SonarProjectPageAction(null, Collections.singletonList(pending), false).isUpdating()).isTrue();
+  }
 }
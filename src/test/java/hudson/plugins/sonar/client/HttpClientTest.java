@@ -20,8 +20,15 @@
 package hudson.plugins.sonar.client;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
@@ -29,6 +36,7 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.BufferedSource;
+import okio.Timeout;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -38,6 +46,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -99,4 +108,104 @@ public class HttpClientTest {
       .hasMessage("Fail to read response of http://sonarqube.org/");
   }
 
+  @Test
+  public void reader_should_consume_successful_response_body() throws IOException {
+    when(body.charStream()).thenReturn(new StringReader("{\"status\": \"OK\"}"));
+
+    Map<String, String> fields = underTest.getHttp(URL, null, reader -> JsonFieldReader.read(reader, "status"));
+
+    assertThat(fields).containsEntry("status", "OK");
+    verify(body, never()).string();
+    verify(body).close();
+  }
+
+  @Test
+  public void reader_should_not_be_called_on_error_response() throws IOException {
+    Response failedResponse = new Response.Builder().code(500).body(body).protocol(Protocol.HTTP_2).message("message").request(request).build();
+    when(call.execute()).thenReturn(failedResponse);
+    HttpClient.ResponseReader<String> reader = mock(HttpClient.ResponseReader.class);
+
+    assertThatThrownBy(() -> underTest.getHttp(URL, null, reader))
+      .isInstanceOf(HttpException.class)
+      .hasMessage("Error 500 on http://sonarqube.org : body");
+    verify(reader, never()).read(any(Reader.class));
+  }
+
+  @Test
+  public void reader_failure_should_throw_illegal_state_exception() {
+    when(body.charStream()).thenReturn(new StringReader(""));
+
+    assertThatThrownBy(() -> underTest.getHttp(URL, null, reader -> {
+      throw new IOException();
+    }))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Fail to read response of http://sonarqube.org/");
+  }
+
+  @Test
+  public void async_reader_should_complete_with_read_value() {
+    when(call.timeout()).thenReturn(new Timeout());
+    when(body.charStream()).thenReturn(new StringReader("{\"status\": \"OK\"}"));
+    ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+
+    CompletableFuture<Map<String, String>> fields = underTest.getHttpAsync(URL, null, Duration.ofSeconds(5), reader -> JsonFieldReader.read(reader, "status"));
+    verify(call).enqueue(callback.capture());
+    callback.getValue().onResponse(call, response);
+
+    assertThat(fields.join()).containsEntry("status", "OK");
+  }
+
+  @Test
+  public void async_request_successful_should_complete_with_content() throws Exception {
+    Timeout timeout = new Timeout();
+    when(call.timeout()).thenReturn(timeout);
+    ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+
+    CompletableFuture<String> content = underTest.getHttpAsync(URL, "token", Duration.ofSeconds(5));
+
+    verify(call).enqueue(callback.capture());
+    assertThat(timeout.timeoutNanos()).isEqualTo(TimeUnit.SECONDS.toNanos(5));
+    assertThat(content).isNotDone();
+    callback.getValue().onResponse(call, response);
+    assertThat(content).isCompletedWithValue("body");
+  }
+
+  @Test
+  public void async_request_fail_should_complete_with_http_exception() throws Exception {
+    when(call.timeout()).thenReturn(new Timeout());
+    ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+    Response failedResponse = new Response.Builder().code(401).body(body).protocol(Protocol.HTTP_2).message("message").request(request).build();
+
+    CompletableFuture<String> content = underTest.getHttpAsync(URL, null, Duration.ofSeconds(5));
+    verify(call).enqueue(callback.capture());
+    callback.getValue().onResponse(call, failedResponse);
+
+    assertThatThrownBy(content::join)
+      .hasCauseInstanceOf(HttpException.class)
+      .hasMessageContaining("Error 401 on http://sonarqube.org : body");
+  }
+
+  @Test
+  public void async_network_error_should_complete_with_illegal_state_exception() {
+    when(call.timeout()).thenReturn(new Timeout());
+    ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+
+    CompletableFuture<String> content = underTest.getHttpAsync(URL, null, Duration.ofSeconds(5));
+    verify(call).enqueue(callback.capture());
+    callback.getValue().onFailure(call, new IOException());
+
+    assertThatThrownBy(content::join)
+      .hasCauseInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("Fail to request http://sonarqube.org/");
+  }
+
+  @Test
+  public void cancelling_async_request_should_cancel_call() {
+    when(call.timeout()).thenReturn(new Timeout());
+
+    CompletableFuture<String> content = underTest.getHttpAsync(URL, null, Duration.ofSeconds(5));
+    content.cancel(true);
+
+    verify(call).cancel();
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Answers for the {@link HttpClient.ResponseReader} and {@link HttpClient.BodyReader} methods of a mocked
+ * {@link HttpClient}, which feed the reader with a canned response body
+ */
+final class HttpResponses {
+
+  private HttpResponses() {
+  }
+
+  static Answer<Object> body(String text) {
+    return invocation -> read(invocation, text);
+  }
+
+  static Answer<CompletableFuture<Object>> asyncBody(String text) {
+    return invocation -> readAsync(invocation, CompletableFuture.completedFuture(text));
+  }
+
+  static Answer<Object> body(byte[] content, String mediaType) {
+    return invocation -> readBody(invocation, content, mediaType);
+  }
+
+  static Answer<CompletableFuture<Object>> asyncBody(byte[] content, String mediaType) {
+    return invocation -> {
+      try {
+        return CompletableFuture.completedFuture(readBody(invocation, content, mediaType));
+      } catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    };
+  }
+
+  /**
+   * Completes once {@code response} completes, like an enqueued request
+   */
+  static CompletableFuture<Object> readAsync(InvocationOnMock invocation, CompletableFuture<String> response) {
+    return response.thenApply(text -> read(invocation, text));
+  }
+
+  private static Object readBody(InvocationOnMock invocation, byte[] content, String mediaType) {
+    HttpClient.BodyReader<?> reader = invocation.getArgument(invocation.getArguments().length - 1);
+    try {
+      return reader.read(ResponseBody.create(content, MediaType.get(mediaType)));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read response", e);
+    }
+  }
+
+  private static Object read(InvocationOnMock invocation, String text) {
+    HttpClient.ResponseReader<?> reader = invocation.getArgument(invocation.getArguments().length - 1);
+    try {
+      return reader.read(new StringReader(text));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read response", e);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class JsonFieldReaderTest {
+
+  @Test
+  public void readNestedFields() throws IOException {
+    Map<String, String> fields = read("{\"task\": {\"id\": \"AU\", \"status\": \"SUCCESS\", \"logs\": false, \"size\": 12}}",
+      "task.status", "task.size", "task.logs");
+
+    assertThat(fields).containsOnly(entry("task.status", "SUCCESS"), entry("task.size", "12"), entry("task.logs", "false"));
+  }
+
+  @Test
+  public void acceptUnquotedAndSingleQuotedKeys() throws IOException {
+    Map<String, String> fields = read("{ task: {'componentKey': 'key', status: \"PENDING\"}}", "task.componentKey", "task.status");
+
+    assertThat(fields).containsOnly(entry("task.componentKey", "key"), entry("task.status", "PENDING"));
+  }
+
+  @Test
+  public void skipOtherValues() throws IOException {
+    String json = "{\"conditions\": [{\"status\": \"ERROR\", \"s\": \"}]\\\"\"}, [1, 2]], \"other\": {\"status\": \"KO\"}, "
+      + "\"projectStatus\": {\"periods\": [], \"status\": \"OK\"}}";
+
+    assertThat(read(json, "projectStatus.status")).containsOnly(entry("projectStatus.status", "OK"));
+  }
+
+  @Test
+  public void decodeEscapes() throws IOException {
+    assertThat(read("{\"name\": \"a\\\"b\\\\c\\u00e9\\n\"}", "name")).containsOnly(entry("name", "a\"b\\cé\n"));
+  }
+
+  @Test
+  public void returnNullValues() throws IOException {
+    assertThat(read("{\"task\": {\"analysisId\": null}}", "task.analysisId")).containsOnly(entry("task.analysisId", null));
+  }
+
+  @Test
+  public void ignoreMissingAndNonScalarFields() throws IOException {
+    assertThat(read("{\"task\": {\"status\": {\"a\": 1}}, \"b\": [\"c\"]}", "task.status", "task.analysisId", "b")).isEmpty();
+  }
+
+  @Test
+  public void stopReadingOnceAllFieldsAreFound() throws IOException {
+    CountingReader reader = new CountingReader("{\"projectStatus\": {\"status\": \"OK\", \"conditions\": [ not even json");
+
+    assertThat(JsonFieldReader.read(reader, "projectStatus.status")).containsOnly(entry("projectStatus.status", "OK"));
+    assertThat(reader.closedOrExhausted).isFalse();
+  }
+
+  @Test
+  public void readAcrossBufferBoundaries() throws IOException {
+    StringBuilder json = new StringBuilder("{\"padding\": \"");
+    for (int i = 0; i < 10_000; i++) {
+      json.append('x');
+    }
+    json.append("\", \"status\": \"OK\"}");
+
+    assertThat(read(json.toString(), "status")).containsOnly(entry("status", "OK"));
+  }
+
+  @Test
+  public void readFieldsOfEachObjectOfArray() throws IOException {
+    List<Map<String, String>> tasks = new ArrayList<>();
+    Map<String, String> fields = JsonFieldReader.read(new StringReader("{\"paging\": {\"total\": 3}, \"tasks\": ["
+      + "{\"id\": \"t1\", \"status\": \"SUCCESS\", \"warnings\": [\"w\"], \"other\": {\"id\": \"x\"}}, "
+      + "{\"status\": \"FAILED\", \"id\": \"t2\", \"analysisId\": null}, 42], \"more\": [ not even json"),
+      "tasks", Set.of("id", "status", "analysisId"), tasks::add, "paging.total");
+
+    assertThat(fields).containsOnly(entry("paging.total", "3"), entry("tasks", "2"));
+    assertThat(tasks).hasSize(2);
+    assertThat(tasks.get(0)).containsOnly(entry("id", "t1"), entry("status", "SUCCESS"));
+    assertThat(tasks.get(1)).containsOnly(entry("id", "t2"), entry("status", "FAILED"), entry("analysisId", null));
+  }
+
+  @Test
+  public void readEmptyArray() throws IOException {
+    List<Map<String, String>> tasks = new ArrayList<>();
+
+    assertThat(JsonFieldReader.read(new StringReader("{\"tasks\": [ ]}"), "tasks", Set.of("id"), tasks::add)).containsOnly(entry("tasks", "0"));
+    assertThat(tasks).isEmpty();
+  }
+
+  @Test
+  public void failOnMalformedDocument() {
+    assertThatThrownBy(() -> read("<html>", "status")).isInstanceOf(JsonFieldReader.MalformedJsonException.class);
+    assertThatThrownBy(() -> read("{\"status\" \"OK\"}", "status")).isInstanceOf(JsonFieldReader.MalformedJsonException.class);
+    assertThatThrownBy(() -> read("{\"a\": \"OK", "status")).isInstanceOf(JsonFieldReader.MalformedJsonException.class);
+    assertThatThrownBy(() -> read("{\"a\": [1, 2", "status"))
+      .isInstanceOf(JsonFieldReader.MalformedJsonException.class)
+      .hasMessageContaining("end of document");
+  }
+
+  private static Map<String, String> read(String json, String... paths) throws IOException {
+    return JsonFieldReader.read(new StringReader(json), paths);
+  }
+
+  /**
+   * Serves one character at a time, to make sure the reader doesn't consume more than needed
+   */
+  private static class CountingReader extends Reader {
+    private final String text;
+    private int pos;
+    private boolean closedOrExhausted;
+
+    CountingReader(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (pos == text.length()) {
+        closedOrExhausted = true;
+        return -1;
+      }
+      cbuf[off] = text.charAt(pos++);
+      return 1;
+    }
+
+    @Override
+    public void close() {
+      closedOrExhausted = true;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares reading the status of a quality gate with {@link JsonFieldReader} and with json-lib, which was used before.
+ * Run with {@code mvn test -Dbenchmark}.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonResponseBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class ProjectStatus {
+    /**
+     * Number of conditions in the quality gate
+     */
+    @Param({"3", "30", "300"})
+    public int conditions;
+
+    String response;
+
+    @Setup
+    public void setUp() {
+      StringBuilder sb = new StringBuilder("{\"projectStatus\":{\"status\":\"ERROR\",\"ignoredConditions\":false,\"conditions\":[");
+      for (int i = 0; i < conditions; i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append("{\"status\":\"OK\",\"metricKey\":\"metric_").append(i)
+          .append("\",\"comparator\":\"GT\",\"periodIndex\":1,\"errorThreshold\":\"0\",\"actualValue\":\"0\"}");
+      }
+      sb.append("],\"periods\":[{\"index\":1,\"mode\":\"previous_version\",\"date\":\"2016-02-17T11:28:28+0100\"}]}}");
+      response = sb.toString();
+    }
+  }
+
+  @Benchmark
+  public String jsonLib(ProjectStatus state) {
+    JSONObject json = (JSONObject) JSONSerializer.toJSON(state.response);
+    return json.getJSONObject("projectStatus").getString("status");
+  }
+
+  @Benchmark
+  public String fieldReader(ProjectStatus state) throws IOException {
+    return JsonFieldReader.read(new StringReader(state.response), "projectStatus.status").get("projectStatus.status");
+  }
+}
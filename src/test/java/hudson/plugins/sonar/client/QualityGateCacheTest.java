@@ -0,0 +1,143 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QualityGateCacheTest {
+  private final AtomicLong now = new AtomicLong();
+  private final QualityGateCache cache = new QualityGateCache(1024 * 1024, 24, now::get);
+  private final List<Runnable> tasks = new ArrayList<>();
+
+  @Test
+  public void testTerminalStatus() {
+    assertThat(QualityGateCache.isTerminal(proj("success"))).isTrue();
+    assertThat(QualityGateCache.isTerminal(proj("failed"))).isTrue();
+    assertThat(QualityGateCache.isTerminal(proj("canceled"))).isTrue();
+    assertThat(QualityGateCache.isTerminal(proj("pending"))).isFalse();
+    assertThat(QualityGateCache.isTerminal(proj("in_progress"))).isFalse();
+    assertThat(QualityGateCache.isTerminal(proj(null))).isFalse();
+    assertThat(QualityGateCache.isTerminal(null)).isFalse();
+  }
+
+  @Test
+  public void testKeyedByServerAndTask() {
+    ProjectInformation proj = proj("success");
+    cache.put("http://sonar1", "task", proj);
+
+    assertThat(cache.getIfPresent("http://sonar1", "task")).isSameAs(proj);
+    assertThat(cache.getIfPresent("http://sonar2", "task")).isNull();
+    assertThat(cache.getIfPresent("http://sonar1", "other")).isNull();
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+    assertThat(cache.stats().missCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSingleRefreshAtATime() {
+    AtomicInteger calls = new AtomicInteger();
+    Supplier<ProjectInformation> loader = () -> {
+      calls.incrementAndGet();
+      return proj("success");
+    };
+
+    assertThat(cache.refreshIfStale("http://sonar", "task", loader, tasks::add)).isTrue();
+    assertThat(cache.refreshIfStale("http://sonar", "task", loader, tasks::add)).isTrue();
+    assertThat(tasks).hasSize(1);
+    assertThat(cache.getIfPresent("http://sonar", "task")).isNull();
+
+    tasks.get(0).run();
+
+    assertThat(calls).hasValue(1);
+    assertThat(cache.getIfPresent("http://sonar", "task").getCeStatus()).isEqualTo("success");
+    assertThat(cache.refreshIfStale("http://sonar", "task", loader, tasks::add)).isFalse();
+  }
+
+  @Test
+  public void testTerminalStatusNeverRefreshed() {
+    cache.put("http://sonar", "task", proj("success"));
+    now.addAndGet(TimeUnit.HOURS.toNanos(23));
+
+    assertThat(cache.refreshIfStale("http://sonar", "task", () -> proj("success"), tasks::add)).isFalse();
+    assertThat(tasks).isEmpty();
+
+    now.addAndGet(TimeUnit.HOURS.toNanos(2));
+    assertThat(cache.getIfPresent("http://sonar", "task")).isNull();
+  }
+
+  @Test
+  public void testPendingStatusRefreshedEarly() {
+    cache.put("http://sonar", "pending", proj("pending"));
+    cache.put("http://sonar", "unknown", null);
+
+    now.addAndGet(QualityGateCache.PENDING_REFRESH_NANOS);
+    assertThat(cache.refreshIfStale("http://sonar", "pending", () -> proj("success"), tasks::add)).isTrue();
+    assertThat(cache.refreshIfStale("http://sonar", "unknown", () -> proj("success"), tasks::add)).isFalse();
+
+    now.addAndGet(QualityGateCache.REFRESH_NANOS);
+    assertThat(cache.refreshIfStale("http://sonar", "unknown", () -> proj("success"), tasks::add)).isTrue();
+    assertThat(tasks).hasSize(2);
+  }
+
+  @Test
+  public void testStaleEntryKeptWhileRefreshing() {
+    ProjectInformation pending = proj("pending");
+    cache.put("http://sonar", "task", pending);
+    now.addAndGet(QualityGateCache.PENDING_REFRESH_NANOS);
+
+    assertThat(cache.refreshIfStale("http://sonar", "task", () -> proj("success"), tasks::add)).isTrue();
+    assertThat(cache.getIfPresent("http://sonar", "task")).isSameAs(pending);
+  }
+
+  @Test
+  public void testRefreshRejected() {
+    assertThat(cache.refreshIfStale("http://sonar", "task", () -> proj("success"), r -> {
+      throw new RejectedExecutionException();
+    })).isFalse();
+    // next attempt is not blocked
+    assertThat(cache.refreshIfStale("http://sonar", "task", () -> proj("success"), tasks::add)).isTrue();
+  }
+
+  @Test
+  public void testWeightEviction() {
+    QualityGateCache small = new QualityGateCache(10_000, 24, now::get);
+    for (int i = 0; i < 1_000; i++) {
+      small.put("http://sonar", "task" + i, proj("success"));
+    }
+    assertThat(small.size()).isLessThan(1_000);
+    assertThat(small.stats().evictionCount()).isPositive();
+  }
+
+  private static ProjectInformation proj(String ceStatus) {
+    ProjectInformation proj = new ProjectInformation();
+    proj.setCeStatus(ceStatus);
+    proj.setName("project");
+    proj.setUrl("http://sonar/dashboard?id=project");
+    return proj;
+  }
+}
@@ -34,9 +34,17 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import org.sonarqube.ws.client.HttpException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.mock;
@@ -76,12 +84,57 @@ public class SQProjectResolverTest extends SonarTestCase {
     assertThat(proj.getProjectName()).isEqualTo("SonarLint CLI");
     assertThat(proj.getErrors()).isNullOrEmpty();
 
-    verify(client).getHttp(Mockito.startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN));
-    verify(client).getHttp(Mockito.startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN));
+    verify(client).getHttpAsync(Mockito.startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN), any(Duration.class), any());
+    verify(client).getHttpAsync(Mockito.startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any(Duration.class), any());
 
     verifyNoMoreInteractions(client);
   }
 
+  @Test
+  public void testResolveAll() throws Exception {
+    mockSQServer();
+    List<ProjectInformation> projs = resolver.resolveAll(Arrays.asList(
+      new SQProjectResolver.Analysis(SERVER_URL, PROJECT_URL, CE_TASK_ID, testName.getMethodName()),
+      new SQProjectResolver.Analysis(SERVER_URL, PROJECT_URL, CE_TASK_ID, testName.getMethodName()),
+      new SQProjectResolver.Analysis(SERVER_URL, PROJECT_URL, "task2", "INVALID")), mock(Run.class));
+
+    assertThat(projs).hasSize(3);
+    assertThat(projs.get(0).getStatus()).isEqualTo("OK");
+    assertThat(projs.get(1)).isSameAs(projs.get(0));
+    assertThat(projs.get(2)).isNull();
+    // same task only resolved once
+    verify(client).getHttpAsync(Mockito.startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any(Duration.class), any());
+  }
+
+  @Test
+  public void testResolveAllLimitsConcurrentRequestsPerServer() throws Exception {
+    mockSQServer();
+    String ceTask = getFile("ce_task.json");
+    List<CompletableFuture<String>> inFlight = new CopyOnWriteArrayList<>();
+    when(client.getHttpAsync(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any(Duration.class), any())).thenAnswer(invocation -> {
+      CompletableFuture<String> request = new CompletableFuture<>();
+      inFlight.add(request);
+      return HttpResponses.readAsync(invocation, request);
+    });
+    List<SQProjectResolver.Analysis> analyses = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      analyses.add(new SQProjectResolver.Analysis(SERVER_URL, PROJECT_URL, "task" + i, testName.getMethodName()));
+    }
+
+    CompletableFuture<List<ProjectInformation>> projs = CompletableFuture.supplyAsync(() -> resolver.resolveAll(analyses, mock(Run.class)));
+
+    int completed = 0;
+    while (completed < 12) {
+      // at most 4 requests in flight, the others wait for one to complete
+      waitForRequest(inFlight);
+      assertThat(inFlight.size()).isLessThanOrEqualTo(4);
+      CompletableFuture<String> request = inFlight.remove(0);
+      request.complete(ceTask);
+      completed++;
+    }
+    assertThat(projs.get(10, TimeUnit.SECONDS)).hasSize(12).doesNotContainNull();
+  }
+
   @Test
   public void testInvalidServerUrl() {
     ProjectInformation proj = resolver.resolve("invalid", PROJECT_URL, CE_TASK_ID, testName.getMethodName(), mock(Run.class));
@@ -102,7 +155,8 @@ public class SQProjectResolverTest extends SonarTestCase {
     addCredential(CREDENTIAL_ID, TOKEN);
     configureSonar(inst);
 
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN))).thenThrow(new HttpException(SERVER_URL, 404, "oops"));
+    when(client.getHttpAsync(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any(Duration.class), any()))
+      .thenReturn(CompletableFuture.failedFuture(new HttpException(SERVER_URL, 404, "oops")));
     ProjectInformation proj = resolver.resolve(SERVER_URL, PROJECT_URL, null, testName.getMethodName(), mock(Run.class));
     assertThat(proj).isNull();
   }
@@ -114,7 +168,8 @@ public class SQProjectResolverTest extends SonarTestCase {
     addCredential(CREDENTIAL_ID, TOKEN);
     configureSonar(inst);
 
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN))).thenThrow(new HttpException(SERVER_URL, 500, "oops"));
+    when(client.getHttpAsync(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any(Duration.class), any()))
+      .thenReturn(CompletableFuture.failedFuture(new HttpException(SERVER_URL, 500, "oops")));
     ProjectInformation proj = resolver.resolve(SERVER_URL, PROJECT_URL, null, testName.getMethodName(), mock(Run.class));
     assertThat(proj).isNull();
   }
@@ -126,13 +181,21 @@ public class SQProjectResolverTest extends SonarTestCase {
     assertThat(proj).isNull();
   }
 
+  private static void waitForRequest(List<?> inFlight) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (inFlight.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(inFlight).isNotEmpty();
+  }
+
   @Override
   protected SonarInstallation configureDefaultSonar() {
     return configureSonar(new SonarInstallation(testName.getMethodName(), null, null, null, null, null, null, null, null));
   }
 
   private void mockSQServer(Exception toThrow) {
-    when(client.getHttp(SERVER_URL + WsClient.API_VERSION, null)).thenThrow(toThrow);
+    when(client.getHttpAsync(eq(SERVER_URL + WsClient.API_VERSION), eq(null), any(Duration.class))).thenThrow(toThrow);
   }
 
   private void mockSQServer() throws Exception {
@@ -141,8 +204,10 @@ public class SQProjectResolverTest extends SonarTestCase {
     addCredential(CREDENTIAL_ID, TOKEN);
     configureSonar(inst);
 
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN))).thenReturn(getFile("projectStatus.json"));
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN))).thenReturn(getFile("ce_task.json"));
+    when(client.getHttpAsync(startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN), any(Duration.class), any()))
+      .thenAnswer(HttpResponses.asyncBody(getFile("projectStatus.json")));
+    when(client.getHttpAsync(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any(Duration.class), any()))
+      .thenAnswer(HttpResponses.asyncBody(getFile("ce_task.json")));
   }
 
   private String getFile(String name) throws IOException, URISyntaxException {
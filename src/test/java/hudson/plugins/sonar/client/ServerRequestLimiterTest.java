@@ -0,0 +1,114 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ServerRequestLimiterTest {
+  private final ServerRequestLimiter limiter = new ServerRequestLimiter(2);
+  private final List<CompletableFuture<String>> started = new ArrayList<>();
+
+  @Test
+  public void should_queue_requests_above_limit() {
+    CompletableFuture<String> r1 = limiter.submit(this::request);
+    CompletableFuture<String> r2 = limiter.submit(this::request);
+    CompletableFuture<String> r3 = limiter.submit(this::request);
+
+    assertThat(started).hasSize(2);
+    assertThat(limiter.running()).isEqualTo(2);
+    assertThat(limiter.waiting()).isEqualTo(1);
+
+    started.get(0).complete("1");
+    assertThat(r1).isCompletedWithValue("1");
+    assertThat(started).hasSize(3);
+    assertThat(limiter.running()).isEqualTo(2);
+
+    started.get(1).complete("2");
+    started.get(2).completeExceptionally(new IllegalStateException("boom"));
+    assertThat(r2).isCompletedWithValue("2");
+    assertThat(r3).isCompletedExceptionally();
+    assertThat(limiter.running()).isZero();
+    assertThat(limiter.waiting()).isZero();
+  }
+
+  @Test
+  public void should_release_permit_when_request_fails_to_start() {
+    CompletableFuture<String> failed = limiter.submit(() -> {
+      throw new IllegalStateException("boom");
+    });
+
+    assertThat(failed).isCompletedExceptionally();
+    assertThat(limiter.running()).isZero();
+  }
+
+  @Test
+  public void should_not_start_requests_cancelled_while_waiting() {
+    limiter.submit(this::request);
+    limiter.submit(this::request);
+    CompletableFuture<String> cancelled = limiter.submit(this::request);
+    CompletableFuture<String> next = limiter.submit(this::request);
+
+    cancelled.cancel(true);
+    started.get(0).complete("1");
+
+    assertThat(started).hasSize(3);
+    started.get(2).complete("4");
+    assertThat(next).isCompletedWithValue("4");
+  }
+
+  @Test
+  public void should_not_grow_the_stack_with_the_waiting_requests() {
+    limiter.submit(this::request);
+    limiter.submit(this::request);
+    List<CompletableFuture<String>> cancelled = new ArrayList<>();
+    for (int i = 0; i < 50_000; i++) {
+      cancelled.add(limiter.submit(this::request));
+      limiter.submit(() -> CompletableFuture.completedFuture("done"));
+    }
+    cancelled.forEach(f -> f.cancel(true));
+
+    started.get(0).complete("1");
+    started.get(1).complete("2");
+
+    assertThat(limiter.running()).isZero();
+    assertThat(limiter.waiting()).isZero();
+  }
+
+  @Test
+  public void should_cancel_request_in_flight() {
+    CompletableFuture<String> result = limiter.submit(this::request);
+
+    result.cancel(true);
+
+    assertThat(started.get(0)).isCancelled();
+    assertThat(limiter.running()).isZero();
+  }
+
+  private CompletableFuture<String> request() {
+    CompletableFuture<String> request = new CompletableFuture<>();
+    started.add(request);
+    return request;
+  }
+}
@@ -23,18 +23,28 @@ import hudson.plugins.sonar.client.WsClient.CETask;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.sonarqube.ws.Ce;
+import org.sonarqube.ws.MediaTypes;
+import org.sonarqube.ws.Qualitygates;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,6 +62,12 @@ public class WsClientTest {
   @Before
   public void setUp() {
     wsClient = new WsClient(client, SERVER_URL, TOKEN);
+    WsClient.resetProtobufSupport();
+  }
+
+  @After
+  public void tearDown() {
+    WsClient.resetProtobufSupport();
   }
 
   @Test
@@ -78,7 +94,7 @@ public class WsClientTest {
 
   @Test
   public void testConnectionError() throws Exception {
-    when(client.getHttp(anyString(), anyString())).thenThrow(RuntimeException.class);
+    when(client.getHttp(anyString(), anyString(), any())).thenThrow(RuntimeException.class);
 
     exception.expect(Exception.class);
     wsClient.getCETask(TASK_ID);
@@ -90,16 +106,236 @@ public class WsClientTest {
     verify(client).getHttp("http://url.com" + WsClient.API_VERSION, null);
   }
 
+  @Test
+  public void testCETaskAsync() throws Exception {
+    String url = SERVER_URL + "/api/ce/task?id=" + TASK_ID;
+    when(client.getHttpAsync(eq(url), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any())).thenAnswer(HttpResponses.asyncBody(getFile("ce_task.json")));
+
+    CETask ceTask = wsClient.getCETaskAsync(TASK_ID).get();
+
+    assertThat(ceTask.getComponentName()).isEqualTo("SonarLint CLI");
+    assertThat(ceTask.getStatus()).isEqualTo("SUCCESS");
+    assertThat(ceTask.getUrl()).isEqualTo(url);
+  }
+
+  @Test
+  public void testQualityGateStatusAsync() throws Exception {
+    String url = SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID + "analysis";
+    when(client.getHttpAsync(eq(url), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any())).thenAnswer(HttpResponses.asyncBody(getFile("projectStatus.json")));
+
+    assertThat(wsClient.requestQualityGateStatusAsync("analysis").get()).isEqualTo("OK");
+  }
+
+  @Test
+  public void testQualityGateStatusStopsAtStatus() throws Exception {
+    String ws = WsClient.API_PROJECT_STATUS_WITH_ANALYSISID + "analysis";
+    // anything after the status is not read
+    mockWs(ws, "{ projectStatus: {\"status\": \"ERROR\", \"conditions\": [ truncated");
+
+    assertThat(wsClient.requestQualityGateStatus("analysis")).isEqualTo("ERROR");
+  }
+
+  @Test
+  public void testPendingCETask() throws Exception {
+    String ws = "/api/ce/task?id=" + TASK_ID;
+    mockWs(ws, "{ task: {\"componentKey\": \"key\", \"componentName\": \"name\", \"status\": \"PENDING\"}}");
+
+    CETask ceTask = wsClient.getCETask(TASK_ID);
+
+    assertThat(ceTask.getStatus()).isEqualTo("PENDING");
+    assertThat(ceTask.getAnalysisId()).isNull();
+  }
+
+  @Test
+  public void testMalformedResponse() throws Exception {
+    mockWs("/api/ce/task?id=" + TASK_ID, "<html>");
+
+    assertThatThrownBy(() -> wsClient.getCETask(TASK_ID))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("Unable to parse response from");
+  }
+
+  @Test
+  public void testGetVersionAsync() throws Exception {
+    when(client.getHttpAsync(SERVER_URL + WsClient.API_VERSION, null, WsClient.ASYNC_TIMEOUT)).thenReturn(CompletableFuture.completedFuture("10.4"));
+
+    assertThat(wsClient.getServerVersionAsync().get()).isEqualTo("10.4");
+  }
+
+  @Test
+  public void testFinishedCETasksAsync() throws Exception {
+    String url = SERVER_URL + WsClient.API_CE_ACTIVITY + "1000&minSubmittedAt=2024-03-01T10%3A00%3A00%2B0000";
+    when(client.getHttpAsync(eq(url), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any())).thenAnswer(HttpResponses.asyncBody("{\"tasks\": ["
+      + "{\"id\": \"task1\", \"status\": \"SUCCESS\", \"componentName\": \"project\", \"componentKey\": \"key\", \"analysisId\": \"analysis1\"},"
+      + "{\"id\": \"task2\", \"status\": \"FAILED\", \"componentName\": \"project\", \"componentKey\": \"key\", \"warnings\": [\"w\"]}],"
+      + "\"paging\": {\"pageIndex\": 1, \"pageSize\": 1000, \"total\": 2}}"));
+
+    WsClient.CEActivity activity = wsClient.getFinishedCETasksAsync(Instant.parse("2024-03-01T10:00:00Z")).get();
+
+    assertThat(activity.isComplete()).isTrue();
+    assertThat(activity.getTasks()).containsOnlyKeys("task1", "task2");
+    assertThat(activity.getTasks().get("task1").getAnalysisId()).isEqualTo("analysis1");
+    assertThat(activity.getTasks().get("task1").getComponentKey()).isEqualTo("key");
+    assertThat(activity.getTasks().get("task1").getUrl()).isEqualTo(SERVER_URL + "/api/ce/task?id=task1");
+    assertThat(activity.getTasks().get("task2").getStatus()).isEqualTo("FAILED");
+    assertThat(activity.getTasks().get("task2").getAnalysisId()).isNull();
+  }
+
+  @Test
+  public void testFinishedCETasksAsyncTruncated() throws Exception {
+    when(client.getHttpAsync(anyString(), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any()))
+      .thenAnswer(HttpResponses.asyncBody("{\"tasks\": [], \"paging\": {\"pageIndex\": 1, \"pageSize\": 1000, \"total\": 1500}}"));
+
+    assertThat(wsClient.getFinishedCETasksAsync(Instant.EPOCH).get().isComplete()).isFalse();
+  }
+
+  @Test
+  public void testFinishedCETasksAsyncWithoutComponent() {
+    when(client.getHttpAsync(anyString(), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any()))
+      .thenAnswer(HttpResponses.asyncBody("{\"tasks\": [{\"id\": \"task1\", \"status\": \"SUCCESS\", \"componentKey\": \"key\"}]}"));
+
+    assertThatThrownBy(() -> wsClient.getFinishedCETasksAsync(Instant.EPOCH).join())
+      .hasCauseInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("missing componentName");
+  }
+
+  @Test
+  public void testFinishedCETasksAsyncWithoutTasks() {
+    when(client.getHttpAsync(anyString(), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any())).thenAnswer(HttpResponses.asyncBody("{\"paging\": {\"total\": 0}}"));
+
+    assertThatThrownBy(() -> wsClient.getFinishedCETasksAsync(Instant.EPOCH).join())
+      .hasCauseInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("missing tasks");
+  }
+
+  @Test
+  public void testFinishedCETasksAsyncWithInvalidTotal() {
+    when(client.getHttpAsync(anyString(), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any()))
+      .thenAnswer(HttpResponses.asyncBody("{\"tasks\": [], \"paging\": {\"total\": \"many\"}}"));
+
+    assertThatThrownBy(() -> wsClient.getFinishedCETasksAsync(Instant.EPOCH).join())
+      .hasCauseInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("invalid paging.total");
+  }
+
+  @Test
+  public void testInvalidResponseAsync() {
+    when(client.getHttpAsync(eq(SERVER_URL + "/api/ce/task?id=" + TASK_ID), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any())).thenAnswer(HttpResponses.asyncBody("{}"));
+
+    assertThatThrownBy(() -> wsClient.getCETaskAsync(TASK_ID).join())
+      .hasCauseInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("Unable to parse response from");
+  }
+
+  @Test
+  public void testCancelAsync() {
+    CompletableFuture<String> request = new CompletableFuture<>();
+    when(client.getHttpAsync(eq(SERVER_URL + "/api/ce/task?id=" + TASK_ID), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any())).thenAnswer(invocation -> request);
+
+    wsClient.getCETaskAsync(TASK_ID).cancel(true);
+
+    assertThat(request).isCancelled();
+  }
+
+  @Test
+  public void testCETaskProtobuf() {
+    String url = SERVER_URL + "/api/ce/task?id=" + TASK_ID;
+    byte[] response = Ce.TaskResponse.newBuilder()
+      .setTask(Ce.Task.newBuilder().setStatus(Ce.TaskStatus.SUCCESS).setComponentKey("key").setComponentName("name").setAnalysisId("analysis"))
+      .build().toByteArray();
+    when(client.getHttp(eq(url), eq(TOKEN), eq(MediaTypes.PROTOBUF), any())).thenAnswer(HttpResponses.body(response, MediaTypes.PROTOBUF));
+
+    CETask ceTask = new WsClient(client, SERVER_URL, TOKEN, true).getCETask(TASK_ID);
+
+    assertThat(ceTask.getStatus()).isEqualTo("SUCCESS");
+    assertThat(ceTask.getComponentKey()).isEqualTo("key");
+    assertThat(ceTask.getComponentName()).isEqualTo("name");
+    assertThat(ceTask.getAnalysisId()).isEqualTo("analysis");
+    assertThat(ceTask.getUrl()).isEqualTo(url);
+  }
+
+  @Test
+  public void testPendingCETaskProtobuf() {
+    byte[] response = Ce.TaskResponse.newBuilder()
+      .setTask(Ce.Task.newBuilder().setStatus(Ce.TaskStatus.PENDING).setComponentKey("key").setComponentName("name"))
+      .build().toByteArray();
+    when(client.getHttp(anyString(), eq(TOKEN), eq(MediaTypes.PROTOBUF), any())).thenAnswer(HttpResponses.body(response, MediaTypes.PROTOBUF));
+
+    CETask ceTask = new WsClient(client, SERVER_URL, TOKEN, true).getCETask(TASK_ID);
+
+    assertThat(ceTask.getStatus()).isEqualTo("PENDING");
+    assertThat(ceTask.getAnalysisId()).isNull();
+  }
+
+  @Test
+  public void testQualityGateStatusProtobufAsync() throws Exception {
+    byte[] response = Qualitygates.ProjectStatusResponse.newBuilder()
+      .setProjectStatus(Qualitygates.ProjectStatusResponse.ProjectStatus.newBuilder().setStatus(Qualitygates.ProjectStatusResponse.Status.ERROR))
+      .build().toByteArray();
+    when(client.getHttpAsync(anyString(), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), eq(MediaTypes.PROTOBUF), any()))
+      .thenAnswer(HttpResponses.asyncBody(response, MediaTypes.PROTOBUF));
+
+    assertThat(new WsClient(client, SERVER_URL, TOKEN, true).requestQualityGateStatusAsync("analysis").get()).isEqualTo("ERROR");
+  }
+
+  @Test
+  public void testProtobufFallbackToJsonResponse() throws Exception {
+    WsClient protobufClient = new WsClient(client, SERVER_URL, TOKEN, true);
+    when(client.getHttp(anyString(), eq(TOKEN), eq(MediaTypes.PROTOBUF), any()))
+      .thenAnswer(HttpResponses.body(getFile("projectStatus.json").getBytes(StandardCharsets.UTF_8), "application/json"));
+    when(client.getHttp(anyString(), eq(TOKEN), any(HttpClient.ResponseReader.class))).thenAnswer(HttpResponses.body(getFile("projectStatus.json")));
+
+    assertThat(protobufClient.requestQualityGateStatus("analysis")).isEqualTo("OK");
+    // the server doesn't support protobuf, next requests ask for JSON
+    assertThat(protobufClient.requestQualityGateStatus("analysis")).isEqualTo("OK");
+
+    verify(client).getHttp(anyString(), eq(TOKEN), eq(MediaTypes.PROTOBUF), any());
+    verify(client).getHttp(anyString(), eq(TOKEN), any(HttpClient.ResponseReader.class));
+  }
+
+  @Test
+  public void testProtobufDecodingErrorFallbackToJson() throws Exception {
+    String url = SERVER_URL + "/api/ce/task?id=" + TASK_ID;
+    when(client.getHttp(eq(url), eq(TOKEN), eq(MediaTypes.PROTOBUF), any())).thenAnswer(HttpResponses.body(new byte[] {(byte) 0xff, 0x01}, MediaTypes.PROTOBUF));
+    when(client.getHttp(eq(url), eq(TOKEN), any(HttpClient.ResponseReader.class))).thenAnswer(HttpResponses.body(getFile("ce_task.json")));
+
+    CETask ceTask = new WsClient(client, SERVER_URL, TOKEN, true).getCETask(TASK_ID);
+
+    assertThat(ceTask.getComponentName()).isEqualTo("SonarLint CLI");
+  }
+
+  @Test
+  public void testProtobufDecodingErrorFallbackToJsonAsync() throws Exception {
+    String url = SERVER_URL + "/api/ce/task?id=" + TASK_ID;
+    when(client.getHttpAsync(eq(url), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), eq(MediaTypes.PROTOBUF), any()))
+      .thenAnswer(HttpResponses.asyncBody(new byte[] {(byte) 0xff, 0x01}, MediaTypes.PROTOBUF));
+    when(client.getHttpAsync(eq(url), eq(TOKEN), eq(WsClient.ASYNC_TIMEOUT), any(HttpClient.ResponseReader.class)))
+      .thenAnswer(HttpResponses.asyncBody(getFile("ce_task.json")));
+
+    CETask ceTask = new WsClient(client, SERVER_URL, TOKEN, true).getCETaskAsync(TASK_ID).get();
+
+    assertThat(ceTask.getComponentName()).isEqualTo("SonarLint CLI");
+  }
+
+  @Test
+  public void testJsonByDefault() throws Exception {
+    mockWs("/api/ce/task?id=" + TASK_ID, getFile("ce_task.json"));
+
+    wsClient.getCETask(TASK_ID);
+
+    verify(client, never()).getHttp(anyString(), anyString(), eq(MediaTypes.PROTOBUF), any());
+  }
+
   private void setSQVersion(float version) throws Exception {
     when(client.getHttp(SERVER_URL + "/api/server/version", null)).thenReturn(Float.toString(version));
   }
 
   private void verifyWs(String ws) throws Exception {
-    verify(client).getHttp(SERVER_URL + ws, TOKEN);
+    verify(client).getHttp(eq(SERVER_URL + ws), eq(TOKEN), any());
   }
 
   private void mockWs(String ws, String response) throws Exception {
-    when(client.getHttp(eq(SERVER_URL + ws), anyString())).thenReturn(response);
+    when(client.getHttp(eq(SERVER_URL + ws), anyString(), any())).thenAnswer(HttpResponses.body(response));
   }
 
   private String getFile(String name) throws IOException, URISyntaxException {
@@ -0,0 +1,109 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import hudson.console.AnnotatedLargeText;
+import hudson.model.Run;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BuildLogScannerTest {
+  private static final String WARNING = "Please update to at least Java 11.";
+
+  @Rule
+  public TemporaryFolder rootDir = new TemporaryFolder();
+
+  @Test
+  public void should_find_literal_in_small_log() throws IOException {
+    assertThat(BuildLogScanner.contains(stream("INFO: foo\nWARN: " + WARNING + "\n"), bytes(WARNING), 1024)).isTrue();
+    assertThat(BuildLogScanner.contains(stream("INFO: foo\nINFO: bar\n"), bytes(WARNING), 1024)).isFalse();
+  }
+
+  @Test
+  public void should_find_literal_straddling_chunks() throws IOException {
+    for (int offset = 8 * 1024 - WARNING.length(); offset <= 8 * 1024; offset++) {
+      String log = StringUtils.repeat("x", offset) + WARNING + "\n";
+      assertThat(BuildLogScanner.contains(stream(log), bytes(WARNING), Long.MAX_VALUE)).as("offset " + offset).isTrue();
+    }
+  }
+
+  @Test
+  public void should_stop_at_byte_budget() throws IOException {
+    String log = StringUtils.repeat("x", 100_000) + WARNING;
+    assertThat(BuildLogScanner.contains(stream(log), bytes(WARNING), 50_000)).isFalse();
+  }
+
+  @Test
+  public void should_only_read_the_tail_of_the_log() throws IOException {
+    String log = WARNING + StringUtils.repeat("x", 100_000) + "end";
+
+    assertThat(BuildLogScanner.tailContains(mockedRun(log), WARNING, 1_000)).isFalse();
+    assertThat(BuildLogScanner.tailContains(mockedRun(log), "end", 1_000)).isTrue();
+    assertThat(BuildLogScanner.tailContains(mockedRun(log), WARNING, 200_000)).isTrue();
+  }
+
+  @Test
+  public void should_read_from_beginning_when_length_is_unknown() throws IOException {
+    Run run = mock(Run.class);
+    when(run.getLogInputStream()).thenReturn(stream("foo " + WARNING));
+
+    assertThat(BuildLogScanner.tailContains(run, WARNING, 1_000)).isTrue();
+  }
+
+  @Test
+  public void should_read_compressed_log_from_beginning() throws IOException {
+    String log = "foo " + WARNING + StringUtils.repeat("x", 100_000);
+    Run run = mockedRun(log);
+    // length of the compressed file, much shorter than the decompressed stream
+    when(run.getLogText().length()).thenReturn(5_000L);
+    when(run.getRootDir()).thenReturn(rootDir.getRoot());
+    assertThat(rootDir.newFile("log.gz").exists()).isTrue();
+
+    assertThat(BuildLogScanner.tailContains(run, WARNING, 1_000)).isTrue();
+  }
+
+  private static Run mockedRun(String log) throws IOException {
+    Run run = mock(Run.class);
+    AnnotatedLargeText text = mock(AnnotatedLargeText.class);
+    when(text.length()).thenReturn((long) bytes(log).length);
+    when(run.getLogText()).thenReturn(text);
+    when(run.getCharset()).thenReturn(StandardCharsets.UTF_8);
+    when(run.getLogInputStream()).thenReturn(stream(log));
+    return run;
+  }
+
+  private static InputStream stream(String str) {
+    return new ByteArrayInputStream(bytes(str));
+  }
+
+  private static byte[] bytes(String str) {
+    return str.getBytes(StandardCharsets.UTF_8);
+  }
+}
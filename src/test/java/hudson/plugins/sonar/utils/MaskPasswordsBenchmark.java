@@ -0,0 +1,140 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link MaskPasswordsOutputStream} with the regular expression it used before, on a scanner log.
+ * Run with {@code mvn test -Dbenchmark}.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MaskPasswordsBenchmark {
+  private static final List<String> PASSWORDS = Arrays.asList("squ_0123456789abcdef0123456789abcdef01234567", "admin-password");
+
+  @State(Scope.Benchmark)
+  public static class Log {
+    /**
+     * Lines of the log containing a password, in percent
+     */
+    @Param({"0", "10"})
+    public int withPassword;
+
+    byte[] content;
+
+    @Setup
+    public void setUp() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        sb.append("[INFO] Sensor JavaSensor [java] (done) | time=").append(i).append("ms, file src/main/java/org/example/Class")
+          .append(i).append(".java");
+        if (i % 100 < withPassword) {
+          sb.append(" -Dsonar.token=").append(PASSWORDS.get(0));
+        }
+        sb.append('\n');
+      }
+      content = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  @Benchmark
+  public void regex(Log log, Blackhole blackhole) throws IOException {
+    try (OutputStream out = new RegexMaskPasswordsOutputStream(new BlackholeOutputStream(blackhole), StandardCharsets.UTF_8, PASSWORDS)) {
+      out.write(log.content);
+    }
+  }
+
+  @Benchmark
+  public void automaton(Log log, Blackhole blackhole) throws IOException {
+    try (OutputStream out = new MaskPasswordsOutputStream(new BlackholeOutputStream(blackhole), StandardCharsets.UTF_8, PASSWORDS)) {
+      out.write(log.content);
+    }
+  }
+
+  /**
+   * Previous implementation
+   */
+  private static final class RegexMaskPasswordsOutputStream extends hudson.console.LineTransformationOutputStream {
+    private final OutputStream logger;
+    private final Charset charset;
+    private final Pattern pattern;
+
+    private RegexMaskPasswordsOutputStream(OutputStream logger, Charset charset, List<String> passwords) {
+      this.logger = logger;
+      this.charset = charset;
+      this.pattern = Pattern.compile(passwords.stream().map(Pattern::quote).collect(Collectors.joining("|", "(", ")")));
+    }
+
+    @Override
+    protected void eol(byte[] bytes, int len) throws IOException {
+      String line = charset.decode(ByteBuffer.wrap(bytes, 0, len)).toString();
+      if (!line.contains("ANALYSIS SUCCESSFUL, you can browse ")) {
+        line = pattern.matcher(line).replaceAll("******");
+      }
+      logger.write(line.getBytes(charset));
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      logger.close();
+    }
+  }
+
+  private static final class BlackholeOutputStream extends OutputStream {
+    private final Blackhole blackhole;
+
+    private BlackholeOutputStream(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      blackhole.consume(b);
+      blackhole.consume(len);
+    }
+  }
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Base64;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -61,10 +62,108 @@ public class MaskPasswordsOutputStreamTest {
     assertWritten(t, "password=******");
   }
 
+  @Test
+  public void maskOverlappingPasswords() throws IOException {
+    BufferedWriter w = getWriter("admin", "administrator", "abc", "bcd", "wxyz", "xy");
+    w.write("user=administrator");
+    w.newLine();
+    w.write("xabcdx");
+    w.newLine();
+    w.write("abcabc");
+    w.newLine();
+    // the shorter password is found first, the longer one started before it
+    w.write("k=wxyz");
+    w.newLine();
+    w.write("k=wxy");
+    w.newLine();
+    w.close();
+
+    assertWritten("user=******", "x******x", "************", "k=******", "k=w******");
+  }
+
+  @Test
+  public void maskNonAsciiPasswords() throws IOException {
+    BufferedWriter w = getWriter("p\u00e4ss\u20ac");
+    w.write("password=p\u00e4ss\u20ac, p\u00e4ss");
+    w.newLine();
+    w.close();
+
+    assertWritten("password=******, p\u00e4ss");
+  }
+
+  @Test
+  public void copyLinesWithoutPasswords() throws IOException {
+    os = new ByteArrayOutputStream();
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList("secret", ""));
+    // not valid UTF-8, kept as is
+    byte[] line = {'a', (byte) 0xC3, 'b', '\n'};
+    filteredOs.write(line);
+    filteredOs.close();
+
+    assertThat(os.toByteArray()).containsExactly(line);
+  }
+
+  @Test
+  public void maskPasswordsSplitBetweenWrites() throws IOException {
+    os = new ByteArrayOutputStream();
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList("secret", "admin"));
+    byte[] content = "token=secret;user=admin\nsecret\n".getBytes(StandardCharsets.UTF_8);
+    for (byte b : content) {
+      filteredOs.write(b);
+    }
+    filteredOs.write("x=sec".getBytes(StandardCharsets.UTF_8));
+    filteredOs.write("ret".getBytes(StandardCharsets.UTF_8));
+    filteredOs.close();
+
+    assertThat(os.toString(StandardCharsets.UTF_8)).isEqualTo("token=******;user=******\n******\nx=******");
+  }
+
+  @Test
+  public void outputLongLinesWithoutWaitingForTheirEnd() throws IOException {
+    os = new ByteArrayOutputStream();
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList("secret"));
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      line.append("0123456789");
+    }
+    filteredOs.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    assertThat(os.size()).isEqualTo(line.length());
+
+    // may be the beginning of the password
+    filteredOs.write("sec".getBytes(StandardCharsets.UTF_8));
+    assertThat(os.size()).isEqualTo(line.length());
+    filteredOs.write("retary".getBytes(StandardCharsets.UTF_8));
+    assertThat(os.toString(StandardCharsets.UTF_8)).endsWith("9******ary");
+
+    filteredOs.write("se".getBytes(StandardCharsets.UTF_8));
+    filteredOs.close();
+    assertThat(os.toString(StandardCharsets.UTF_8)).endsWith("9******aryse");
+  }
+
+  @Test
+  public void maskEncodedForms() throws IOException {
+    String password = "p@ss w\"rd";
+    String basicAuth = Base64.getEncoder().encodeToString((password + ":").getBytes(StandardCharsets.UTF_8));
+    BufferedWriter w = getWriter(password);
+    w.write("SONARQUBE_SCANNER_PARAMS={ \"sonar.token\" : \"p@ss w\\\"rd\"}");
+    w.newLine();
+    w.write("GET /api/ce/task?token=p%40ss+w%22rd");
+    w.newLine();
+    w.write("GET /api/ce/task?token=p%40ss%20w%22rd");
+    w.newLine();
+    w.write("Authorization: Basic " + basicAuth);
+    w.newLine();
+    w.close();
+
+    assertWritten("SONARQUBE_SCANNER_PARAMS={ \"sonar.token\" : \"******\"}", "GET /api/ce/task?token=******", "GET /api/ce/task?token=******",
+      // the padding depends on what follows the token
+      "Authorization: Basic ******==");
+  }
+
   private BufferedWriter getWriter(String... passwords) {
     os = new ByteArrayOutputStream();
     MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList(passwords));
-    return new BufferedWriter(new OutputStreamWriter(filteredOs));
+    return new BufferedWriter(new OutputStreamWriter(filteredOs, StandardCharsets.UTF_8));
   }
 
   private void assertWritten(String... str) {
@@ -0,0 +1,71 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.commons.lang.SerializationUtils;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PasswordMaskerTest {
+
+  @Test
+  public void shareCompiledMaskers() {
+    PasswordMasker masker = PasswordMasker.of(Arrays.asList("secret", "admin"), StandardCharsets.UTF_8);
+
+    assertThat(PasswordMasker.of(Arrays.asList("secret", "admin"), StandardCharsets.UTF_8)).isSameAs(masker);
+    assertThat(PasswordMasker.of(Arrays.asList("secret", "", "admin"), StandardCharsets.UTF_8)).isSameAs(masker);
+    assertThat(PasswordMasker.of(Collections.singletonList("secret"), StandardCharsets.UTF_8)).isNotSameAs(masker);
+    assertThat(PasswordMasker.of(Arrays.asList("secret", "admin"), StandardCharsets.UTF_16)).isNotSameAs(masker);
+  }
+
+  @Test
+  public void resolveDeserializedMaskersToCompiledOnes() throws IOException {
+    PasswordMasker masker = PasswordMasker.of(Collections.singletonList("secret"), StandardCharsets.UTF_8);
+
+    PasswordMasker copy = (PasswordMasker) SerializationUtils.clone(masker);
+
+    assertThat(copy).isSameAs(masker);
+    assertThat(mask(copy, "password=secret")).isEqualTo("password=******");
+  }
+
+  @Test
+  public void doNotSerializeTheAutomaton() {
+    PasswordMasker small = PasswordMasker.of(Collections.singletonList("s"), StandardCharsets.UTF_8);
+    PasswordMasker large = PasswordMasker.of(Collections.singletonList("a rather long password, with many distinct characters"), StandardCharsets.UTF_8);
+
+    // the passwords and their encoded forms only
+    assertThat(SerializationUtils.serialize(large).length - SerializationUtils.serialize(small).length).isLessThan(1_000);
+  }
+
+  private static String mask(PasswordMasker masker, String text) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try (OutputStream masked = masker.mask(os)) {
+      masked.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return new String(os.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PasswordMatcherTest {
+
+  @Test
+  public void findLongestSequenceEndingAtEachByte() {
+    PasswordMatcher matcher = PasswordMatcher.compile(Arrays.asList(bytes("he"), bytes("she"), bytes("his"), bytes("hers")));
+
+    assertThat(matchLengths(matcher, "ushers")).containsExactly(0, 0, 0, 3, 0, 4);
+    assertThat(matchLengths(matcher, "hishe")).containsExactly(0, 0, 3, 0, 3);
+    assertThat(matcher.maxLength()).isEqualTo(4);
+  }
+
+  @Test
+  public void restartAfterPartialMatch() {
+    PasswordMatcher matcher = PasswordMatcher.compile(Collections.singletonList(bytes("aab")));
+
+    assertThat(matchLengths(matcher, "aaab")).containsExactly(0, 0, 0, 3);
+  }
+
+  @Test
+  public void emptyMatcher() {
+    PasswordMatcher matcher = PasswordMatcher.compile(Collections.singletonList(new byte[0]));
+
+    assertThat(matcher.isEmpty()).isTrue();
+    assertThat(matchLengths(matcher, "abc")).containsExactly(0, 0, 0);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int[] matchLengths(PasswordMatcher matcher, String text) {
+    byte[] bytes = bytes(text);
+    int[] lengths = new int[bytes.length];
+    int state = PasswordMatcher.initialState();
+    for (int i = 0; i < bytes.length; i++) {
+      state = matcher.next(state, bytes[i]);
+      lengths[i] = matcher.matchLength(state);
+    }
+    return lengths;
+  }
+}
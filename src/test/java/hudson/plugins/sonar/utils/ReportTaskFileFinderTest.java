@@ -0,0 +1,170 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static hudson.plugins.sonar.utils.SonarUtils.REPORT_TASK_FILE_NAME;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReportTaskFileFinderTest {
+  private static final Set<String> PRUNED = Collections.singleton("node_modules");
+
+  @Rule
+  public TemporaryFolder workspace = new TemporaryFolder();
+
+  @Test
+  public void should_check_well_known_locations_first() throws IOException {
+    File expected = createReportTask(".scannerwork");
+    createReportTask("module/foo");
+
+    ReportTaskFileFinder.Result result = find(null);
+
+    assertThat(result.isWellKnownLocation()).isTrue();
+    assertThat(result.getReportTask().getPath()).isEqualTo(expected.getAbsolutePath());
+    assertThat(result.getReportTask().getCeTaskId()).isEqualTo("foo");
+    assertThat(result.getOtherFiles()).isEmpty();
+  }
+
+  @Test
+  public void should_walk_workspace_when_well_known_file_is_older_than_build() throws IOException {
+    File stale = createReportTask(".scannerwork");
+    File current = createReportTask("sub/.scannerwork");
+    long buildStart = current.lastModified() - 5_000;
+    assertThat(stale.setLastModified(buildStart - 60_000)).isTrue();
+
+    ReportTaskFileFinder.Result result = new ReportTaskFileFinder(null, PRUNED, 10, 10_000, buildStart).invoke(workspace.getRoot(), null);
+
+    assertThat(result.isWellKnownLocation()).isFalse();
+    assertThat(result.getReportTask().getPath()).isEqualTo(current.getAbsolutePath());
+    assertThat(result.getOtherFiles()).containsExactly(stale.getAbsolutePath());
+  }
+
+  @Test
+  public void should_trust_well_known_file_written_during_build() throws IOException {
+    File expected = createReportTask(".scannerwork");
+    createReportTask("sub/.scannerwork");
+
+    ReportTaskFileFinder.Result result = new ReportTaskFileFinder(null, PRUNED, 10, 10_000, expected.lastModified() - 5_000)
+      .invoke(workspace.getRoot(), null);
+
+    assertThat(result.isWellKnownLocation()).isTrue();
+    assertThat(result.getReportTask().getPath()).isEqualTo(expected.getAbsolutePath());
+    assertThat(result.getOtherFiles()).isEmpty();
+  }
+
+  @Test
+  public void should_check_working_directory_before_default_locations() throws IOException {
+    File expected = createReportTask("custom/work");
+    File other = createReportTask("target/sonar");
+    assertThat(other.setLastModified(expected.lastModified())).isTrue();
+
+    ReportTaskFileFinder.Result result = find("custom/work/");
+
+    assertThat(result.isWellKnownLocation()).isTrue();
+    assertThat(result.getReportTask().getPath()).isEqualTo(expected.getAbsolutePath());
+    assertThat(result.getOtherFiles()).containsExactly(other.getAbsolutePath());
+  }
+
+  @Test
+  public void should_accept_absolute_working_directory() throws IOException {
+    File expected = createReportTask("custom/work");
+
+    ReportTaskFileFinder.Result result = find(expected.getParentFile().getAbsolutePath());
+
+    assertThat(result.getReportTask().getPath()).isEqualTo(expected.getAbsolutePath());
+    assertThat(result.getOtherFiles()).isEmpty();
+  }
+
+  @Test
+  public void should_walk_workspace_and_skip_pruned_directories() throws IOException {
+    File expected = createReportTask("module/foo");
+    createReportTask("node_modules/lib");
+
+    ReportTaskFileFinder.Result result = find(null);
+
+    assertThat(result.isWellKnownLocation()).isFalse();
+    assertThat(result.isTimedOut()).isFalse();
+    assertThat(result.getReportTask().getPath()).isEqualTo(expected.getAbsolutePath());
+    assertThat(result.getOtherFiles()).isEmpty();
+  }
+
+  @Test
+  public void should_stop_at_max_depth() throws IOException {
+    createReportTask("a/b/c/d/e/f");
+
+    assertThat(new ReportTaskFileFinder(null, PRUNED, 3, 10_000).invoke(workspace.getRoot(), null).getReportTask()).isNull();
+    assertThat(new ReportTaskFileFinder(null, PRUNED, 7, 10_000).invoke(workspace.getRoot(), null).getReportTask()).isNotNull();
+  }
+
+  @Test
+  public void should_stop_when_time_budget_is_exhausted() throws IOException {
+    createReportTask("module/foo");
+
+    ReportTaskFileFinder.Result result = new ReportTaskFileFinder(null, PRUNED, 10, -1).invoke(workspace.getRoot(), null);
+
+    assertThat(result.isTimedOut()).isTrue();
+    assertThat(result.getOtherFiles()).isEmpty();
+    assertThat(result.getReportTask()).isNull();
+  }
+
+  @Test
+  public void should_read_most_recent_file() throws IOException {
+    File older = createReportTask("module/foo");
+    File newer = createReportTask("module/bar");
+    FileUtils.write(newer, "projectKey=bar\nserverUrl=http://url\ndashboardUrl=http://url/dashboard?id=bar\nceTaskId=bar", "UTF-8");
+    assertThat(older.setLastModified(newer.lastModified() - 10_000)).isTrue();
+
+    ReportTaskFileFinder.Result result = find(null);
+
+    assertThat(result.getOtherFiles()).containsExactly(older.getAbsolutePath());
+    ReportTask reportTask = result.getReportTask();
+    assertThat(reportTask.getPath()).isEqualTo(newer.getAbsolutePath());
+    assertThat(reportTask.getCeTaskId()).isEqualTo("bar");
+    assertThat(reportTask.getServerUrl()).isEqualTo("http://url");
+    assertThat(reportTask.getDashboardUrl()).isEqualTo("http://url/dashboard?id=bar");
+    assertThat(reportTask.toProperties()).containsEntry("projectKey", "bar").hasSize(4);
+  }
+
+  @Test
+  public void should_return_nothing_when_workspace_does_not_exist() throws IOException {
+    ReportTaskFileFinder.Result result = new ReportTaskFileFinder(null, PRUNED, 10, 10_000).invoke(new File(workspace.getRoot(), "missing"), null);
+
+    assertThat(result.getOtherFiles()).isEmpty();
+    assertThat(result.getReportTask()).isNull();
+  }
+
+  private ReportTaskFileFinder.Result find(String workingDirectory) throws IOException {
+    return new ReportTaskFileFinder(workingDirectory, PRUNED, 10, 10_000).invoke(workspace.getRoot(), null);
+  }
+
+  private File createReportTask(String dir) throws IOException {
+    File file = new File(new File(workspace.getRoot(), dir), REPORT_TASK_FILE_NAME);
+    FileUtils.write(file, "ceTaskId=foo", "UTF-8");
+    return file;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import hudson.model.Run;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ScannerOutputSnifferTest {
+  private final ByteArrayOutputStream os = new ByteArrayOutputStream();
+  private final ScannerOutputSniffer underTest = new ScannerOutputSniffer(os, StandardCharsets.UTF_8);
+
+  @Test
+  public void should_copy_output_and_capture_report_task() throws IOException {
+    String output = "INFO: Analysis report uploaded in 42ms\n"
+      + "INFO: ANALYSIS SUCCESSFUL, you can browse http://localhost:9000/dashboard?id=foo\n"
+      + "INFO: Note that you will be able to access the updated dashboard once the server has processed the submitted analysis report\n"
+      + "INFO: More about the report processing at http://localhost:9000/api/ce/task?id=AYzPsI8CN2oYarIFiK6r\n"
+      + "INFO: EXECUTION SUCCESS";
+    underTest.write(output.getBytes(StandardCharsets.UTF_8));
+    underTest.forceEol();
+
+    assertThat(os.toString(StandardCharsets.UTF_8)).isEqualTo(output);
+    assertThat(underTest.hasJava11Warning()).isFalse();
+
+    Properties reportTask = underTest.getReportTask();
+    assertThat(reportTask).isNotNull();
+    assertThat(reportTask.getProperty(SonarUtils.CE_TASK_ID_KEY)).isEqualTo("AYzPsI8CN2oYarIFiK6r");
+    assertThat(reportTask.getProperty(SonarUtils.SERVER_URL_KEY)).isEqualTo("http://localhost:9000");
+    assertThat(reportTask.getProperty(SonarUtils.DASHBOARD_URL_KEY)).isEqualTo("http://localhost:9000/dashboard?id=foo");
+  }
+
+  @Test
+  public void should_capture_output_of_recent_scanners() throws IOException {
+    String output = "[INFO] ANALYSIS SUCCESSFUL, you can find the results at: https://sq.example.com/sonar/dashboard?id=foo\r\n"
+      + "[INFO] More about the report processing at https://sq.example.com/sonar/api/ce/task?id=task1\r\n";
+    underTest.write(output.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(underTest.getCeTaskId()).isEqualTo("task1");
+    assertThat(underTest.getServerUrl()).isEqualTo("https://sq.example.com/sonar");
+    assertThat(underTest.getDashboardUrl()).isEqualTo("https://sq.example.com/sonar/dashboard?id=foo");
+  }
+
+  @Test
+  public void should_detect_java11_warning() throws IOException {
+    underTest.write(("WARN: The version of Java (1.8.0_101) you have used to run this analysis is deprecated. "
+      + SonarUtils.JAVA_11_WARNING + "\n").getBytes(StandardCharsets.UTF_8));
+
+    assertThat(underTest.hasJava11Warning()).isTrue();
+    assertThat(underTest.getReportTask()).isNull();
+  }
+
+  @Test
+  public void should_register_sniffer_of_build() {
+    Run<?, ?> build = mock(Run.class);
+    ScannerOutputSniffer sniffer = ScannerOutputSniffer.attach(build, os, StandardCharsets.UTF_8);
+
+    assertThat(ScannerOutputSniffer.of(build)).isSameAs(sniffer);
+    assertThat(ScannerOutputSniffer.of(mock(Run.class))).isNull();
+  }
+}
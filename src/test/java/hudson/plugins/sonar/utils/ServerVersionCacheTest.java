@@ -0,0 +1,150 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ServerVersionCacheTest {
+  private final AtomicLong now = new AtomicLong();
+  private final ServerVersionCache cache = new ServerVersionCache(10, 60, now::get);
+
+  @Test
+  public void should_fetch_version_once_per_installation_and_url() {
+    AtomicInteger calls = new AtomicInteger();
+    Supplier<String> fetcher = () -> {
+      calls.incrementAndGet();
+      return "9.9";
+    };
+
+    assertThat(cache.getVersion("inst", "http://url", fetcher).get()).isEqualTo("9.9");
+    assertThat(cache.getVersion("inst", "http://url", fetcher).get()).isEqualTo("9.9");
+    assertThat(calls).hasValue(1);
+
+    cache.getVersion("inst", "http://other", fetcher);
+    cache.getVersion("other", "http://url", fetcher);
+    cache.getVersion(null, "http://url", fetcher);
+    assertThat(calls).hasValue(4);
+  }
+
+  @Test
+  public void should_refetch_after_ttl() {
+    AtomicInteger calls = new AtomicInteger();
+    Supplier<String> fetcher = () -> calls.incrementAndGet() == 1 ? "9.9" : "10.0";
+
+    assertThat(cache.getVersion("inst", "http://url", fetcher).get()).isEqualTo("9.9");
+    now.addAndGet(TimeUnit.MINUTES.toNanos(9));
+    assertThat(cache.getVersion("inst", "http://url", fetcher).get()).isEqualTo("9.9");
+    now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+    assertThat(cache.getVersion("inst", "http://url", fetcher).get()).isEqualTo("10.0");
+  }
+
+  @Test
+  public void should_remember_failures_for_a_shorter_time() {
+    AtomicInteger calls = new AtomicInteger();
+    Supplier<String> fetcher = () -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new IllegalStateException("Connection refused");
+      }
+      return "10.0";
+    };
+
+    assertThatThrownBy(() -> cache.getVersion("inst", "http://url", fetcher))
+      .isInstanceOf(IllegalStateException.class)
+      .hasRootCauseMessage("Connection refused");
+    assertThatThrownBy(() -> cache.getVersion("inst", "http://url", fetcher))
+      .isInstanceOf(IllegalStateException.class);
+    assertThat(calls).hasValue(1);
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    assertThat(cache.getVersion("inst", "http://url", fetcher).get()).isEqualTo("10.0");
+    assertThat(calls).hasValue(2);
+  }
+
+  @Test
+  public void should_remember_invalid_versions_as_failures() {
+    assertThatThrownBy(() -> cache.getVersion("inst", "http://url", () -> "<html>"))
+      .isInstanceOf(IllegalStateException.class)
+      .hasCauseInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void should_forget_everything_on_invalidate() {
+    AtomicInteger calls = new AtomicInteger();
+    Supplier<String> fetcher = () -> {
+      calls.incrementAndGet();
+      return "9.9";
+    };
+    cache.getVersion("inst", "http://url", fetcher);
+    assertThat(cache.size()).isEqualTo(1);
+
+    cache.invalidateAll();
+
+    assertThat(cache.size()).isZero();
+    cache.getVersion("inst", "http://url", fetcher);
+    assertThat(calls).hasValue(2);
+  }
+
+  @Test
+  public void should_send_a_single_request_for_concurrent_lookups() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch fetching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<String> fetcher = () -> {
+      calls.incrementAndGet();
+      fetching.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "10.0";
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      Future<Version> first = executor.submit(() -> cache.getVersion("inst", "http://url", fetcher));
+      assertThat(fetching.await(10, TimeUnit.SECONDS)).isTrue();
+      Future<?>[] others = new Future<?>[7];
+      for (int i = 0; i < others.length; i++) {
+        others[i] = executor.submit(() -> cache.getVersion("inst", "http://url", fetcher));
+      }
+      release.countDown();
+
+      assertThat(first.get(10, TimeUnit.SECONDS).get()).isEqualTo("10.0");
+      for (Future<?> other : others) {
+        assertThat(((Version) other.get(10, TimeUnit.SECONDS)).get()).isEqualTo("10.0");
+      }
+      assertThat(calls).hasValue(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -30,14 +30,18 @@ import hudson.plugins.sonar.action.SonarAnalysisAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.WsClient;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import org.apache.commons.io.FileUtils;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -46,7 +50,6 @@ import org.junit.rules.TemporaryFolder;
 import static hudson.plugins.sonar.utils.SonarUtils.REPORT_TASK_FILE_NAME;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -60,6 +63,11 @@ public class SonarUtilsTest {
   @Rule
   public TemporaryFolder workspaceFolder = new TemporaryFolder();
 
+  @Before
+  public void clearVersionCache() {
+    ServerVersionCache.get().invalidateAll();
+  }
+
   @Test
   public void testMajorMinor() {
     assertThat(SonarUtils.extractMajorMinor("3.0")).isEqualTo(3.0f);
@@ -156,6 +164,25 @@ public class SonarUtilsTest {
     verify(printStream, never()).println("Pipeline marked as 'UNSTABLE'. Please update to at least Java 11. Find more information here on how to do this: https://sonarcloud.io/documentation/appendices/move-analysis-java-11/");
   }
 
+  @Test
+  public void should_use_scanner_output_instead_of_workspace_and_log() throws Exception {
+    AbstractBuild<?, ?> build = mockedBuild("log");
+    ScannerOutputSniffer scannerOutput = new ScannerOutputSniffer(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+    scannerOutput.write(("INFO: ANALYSIS SUCCESSFUL, you can browse http://url/dashboard?id=test\n"
+      + "INFO: More about the report processing at http://url/api/ce/task?id=AYzPsI8CN2oYarIFiK6r\n").getBytes(StandardCharsets.UTF_8));
+
+    SonarInstallation sonarInstallation = new SonarInstallation("inst", "https://url.com", "credentialsId", null, null, null, null, null,
+      null);
+    SonarAnalysisAction action = SonarUtils.addBuildInfoTo(build, mock(TaskListener.class), new FilePath(new File("non_existing_file")),
+      sonarInstallation, "credId", false, scannerOutput);
+
+    assertThat(action.getCeTaskId()).isEqualTo("AYzPsI8CN2oYarIFiK6r");
+    assertThat(action.getUrl()).isEqualTo("http://url/dashboard?id=test");
+    assertThat(action.getServerUrl()).isEqualTo("http://url");
+    verify(build, never()).getLogInputStream();
+    verify(build).addAction(action);
+  }
+
   @Test
   public void getTokenProperty_whenSQVersionHigherThan10_shouldReturnSonarToken() {
     SonarInstallation sonarInstallation = new SonarInstallation("inst", "https://url.com", null, null, null, null, null, null, null);
@@ -208,7 +235,7 @@ public class SonarUtilsTest {
   private static AbstractBuild<?, ?> mockedBuild(String log) throws IOException, InterruptedException {
     AbstractBuild<?, ?> build = mock(AbstractBuild.class);
     when(build.getLogReader()).thenReturn(new StringReader(log));
-    when(build.getLog(anyInt())).thenReturn(Collections.singletonList(log));
+    when(build.getLogInputStream()).thenReturn(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)));
     when(build.getBuildVariables()).thenReturn(Collections.emptyMap());
     when(build.getEnvironment(any())).thenReturn(new EnvVars());
     return build;
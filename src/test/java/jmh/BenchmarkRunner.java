@@ -0,0 +1,51 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package jmh;
+
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks annotated with {@link jenkins.benchmark.jmh.JmhBenchmark}, with {@code mvn test -Dbenchmark}.
+ * Not run by default, since its name doesn't end with Test.
+ */
+public final class BenchmarkRunner {
+  @Test
+  public void runJmhBenchmarks() throws Exception {
+    // modes, time units and threads are set by each benchmark
+    ChainedOptionsBuilder options = new OptionsBuilder()
+      .warmupIterations(2)
+      .forks(2)
+      .addProfiler(GCProfiler.class)
+      .shouldFailOnError(true)
+      .shouldDoGC(true)
+      .resultFormat(ResultFormatType.JSON)
+      .result("jmh-report.json");
+
+    BenchmarkFinder finder = new BenchmarkFinder(getClass());
+    finder.findBenchmarks(options);
+    new Runner(options.build()).run();
+  }
+}
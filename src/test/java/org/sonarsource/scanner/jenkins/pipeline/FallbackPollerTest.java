@@ -0,0 +1,205 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.WsClient;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sonarqube.ws.client.HttpException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class FallbackPollerTest {
+  private static final String SERVER_URL = "http://localhost:9000";
+
+  private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+  private final AtomicLong now = new AtomicLong(1_000_000L);
+  private final FakeApi api = new FakeApi();
+  private final List<ProjectInformation> completed = new ArrayList<>();
+  private final FallbackPoller.Listener listener = completed::add;
+  private FallbackPoller poller;
+
+  @Before
+  public void setUp() {
+    doReturn(mock(ScheduledFuture.class)).when(scheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    poller = new FallbackPoller(api, () -> scheduler, now::get, 1000, 4000, 10_000);
+  }
+
+  @Test
+  public void checksBackOffUntilTaskIsFinished() {
+    poller.watch(SERVER_URL, "token", "task1", listener);
+    assertThat(lastDelay()).isEqualTo(1000);
+
+    for (long expectedDelay : new long[] {2000, 4000, 4000}) {
+      now.addAndGet(lastDelay());
+      runScheduled();
+      api.fetches.remove("task1").complete(info("IN_PROGRESS", null));
+      assertThat(lastDelay()).isEqualTo(expectedDelay);
+    }
+
+    now.addAndGet(lastDelay());
+    runScheduled();
+    api.fetches.remove("task1").complete(info("SUCCESS", "OK"));
+
+    assertThat(completed).extracting(ProjectInformation::getStatus).containsExactly("OK");
+    assertThat(poller.watchedTasks()).isZero();
+    assertThat(api.activities).isEmpty();
+  }
+
+  @Test
+  public void tasksOfTheSameServerAreCheckedTogether() {
+    poller.watch(SERVER_URL, "token", "task1", listener);
+    poller.watch(SERVER_URL + "/", "token", "task2", listener);
+    poller.watch(SERVER_URL, "token", "task3", listener);
+
+    now.addAndGet(1000);
+    runScheduled();
+
+    assertThat(api.activities).hasSize(1);
+    assertThat(api.minSubmittedAt).isEqualTo(Instant.ofEpochMilli(1_000_000L - 10_000));
+    Map<String, WsClient.CETask> tasks = new HashMap<>();
+    tasks.put("task1", new WsClient.CETask("SUCCESS", "project", "key", SERVER_URL + "/api/ce/task?id=task1", "analysis1"));
+    tasks.put("task2", new WsClient.CETask("FAILED", "project", "key", SERVER_URL + "/api/ce/task?id=task2", null));
+    tasks.put("other", new WsClient.CETask("SUCCESS", "project", "key", SERVER_URL + "/api/ce/task?id=other", "analysis2"));
+    api.activities.remove(0).complete(new WsClient.CEActivity(tasks, true));
+
+    assertThat(completed).extracting(ProjectInformation::getCeStatus).containsExactly("failed");
+    assertThat(api.qualityGates).containsOnlyKeys("analysis1");
+    api.qualityGates.get("analysis1").complete("ERROR");
+
+    assertThat(completed).extracting(ProjectInformation::getStatus).containsExactly(null, "ERROR");
+    assertThat(poller.watchedTasks()).isEqualTo(1);
+    assertThat(api.fetches).isEmpty();
+  }
+
+  @Test
+  public void tasksAreCheckedOneByOneWhenActivityIsForbidden() {
+    poller.watch(SERVER_URL, null, "task1", listener);
+    poller.watch(SERVER_URL, null, "task2", listener);
+    poller.watch(SERVER_URL, null, "task3", listener);
+
+    now.addAndGet(1000);
+    runScheduled();
+    api.activities.remove(0).completeExceptionally(new HttpException(SERVER_URL, 403, "Insufficient privileges"));
+
+    assertThat(api.fetches).containsOnlyKeys("task1", "task2", "task3");
+    api.fetches.remove("task1").complete(info("SUCCESS", "OK"));
+    api.fetches.remove("task2").complete(info("PENDING", null));
+    api.fetches.remove("task3").complete(info("PENDING", null));
+    assertThat(completed).hasSize(1);
+
+    now.addAndGet(2000);
+    runScheduled();
+    assertThat(api.activities).isEmpty();
+    assertThat(api.fetches).containsOnlyKeys("task2", "task3");
+  }
+
+  @Test
+  public void incompleteActivityFallsBackToTaskChecks() {
+    poller.watch(SERVER_URL, null, "task1", listener);
+    poller.watch(SERVER_URL, null, "task2", listener);
+    poller.watch(SERVER_URL, null, "task3", listener);
+
+    now.addAndGet(1000);
+    runScheduled();
+    api.activities.remove(0).complete(new WsClient.CEActivity(new HashMap<>(), false));
+
+    assertThat(api.fetches).containsOnlyKeys("task1", "task2", "task3");
+  }
+
+  @Test
+  public void unwatchedTasksAreNotReported() {
+    poller.watch(SERVER_URL, null, "task1", listener);
+    now.addAndGet(1000);
+    runScheduled();
+
+    poller.unwatch("task1", listener);
+    api.fetches.remove("task1").complete(info("SUCCESS", "OK"));
+
+    assertThat(completed).isEmpty();
+    assertThat(poller.watchedTasks()).isZero();
+  }
+
+  private static ProjectInformation info(String ceStatus, String status) {
+    ProjectInformation info = new ProjectInformation();
+    info.setCeStatus(ceStatus);
+    info.setStatus(status);
+    return info;
+  }
+
+  private long lastDelay() {
+    ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+    verify(scheduler, atLeastOnce()).schedule(any(Runnable.class), delays.capture(), eq(TimeUnit.MILLISECONDS));
+    return delays.getValue();
+  }
+
+  /**
+   * Runs the last scheduled round
+   */
+  private void runScheduled() {
+    ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler, atLeastOnce()).schedule(runnable.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    runnable.getValue().run();
+  }
+
+  private static class FakeApi implements FallbackPoller.Api {
+    private final Map<String, CompletableFuture<ProjectInformation>> fetches = new HashMap<>();
+    private final List<CompletableFuture<WsClient.CEActivity>> activities = new ArrayList<>();
+    private final Map<String, CompletableFuture<String>> qualityGates = new HashMap<>();
+    private Instant minSubmittedAt;
+
+    @Override
+    public CompletableFuture<ProjectInformation> fetch(String serverUrl, String token, String taskId) {
+      return fetches.computeIfAbsent(taskId, id -> new CompletableFuture<>());
+    }
+
+    @Override
+    public CompletableFuture<WsClient.CEActivity> activity(String serverUrl, String token, Instant minSubmittedAt) {
+      this.minSubmittedAt = minSubmittedAt;
+      CompletableFuture<WsClient.CEActivity> activity = new CompletableFuture<>();
+      activities.add(activity);
+      return activity;
+    }
+
+    @Override
+    public CompletableFuture<String> qualityGateStatus(String serverUrl, String token, String analysisId) {
+      return qualityGates.computeIfAbsent(analysisId, id -> new CompletableFuture<>());
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import hudson.plugins.sonar.client.ProjectInformation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ResumeCoordinatorTest {
+  private static final String SERVER_URL = "http://localhost:9000";
+
+  private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+  private final AtomicLong now = new AtomicLong();
+  private final List<String> fetched = new ArrayList<>();
+  private final List<CompletableFuture<ProjectInformation>> fetches = new ArrayList<>();
+  private ResumeCoordinator coordinator;
+
+  @Before
+  public void setUp() {
+    coordinator = new ResumeCoordinator((serverUrl, token, taskId) -> {
+      fetched.add(serverUrl + " " + token + " " + taskId);
+      CompletableFuture<ProjectInformation> fetch = new CompletableFuture<>();
+      fetches.add(fetch);
+      return fetch;
+    }, scheduler, 2, 2, now::get, () -> 0L);
+  }
+
+  @Test
+  public void tokenBucketAllowsBurstThenSpacesChecks() {
+    ResumeCoordinator.TokenBucket bucket = new ResumeCoordinator.TokenBucket(2, 3);
+
+    assertThat(bucket.reserve(0)).isZero();
+    assertThat(bucket.reserve(0)).isZero();
+    assertThat(bucket.reserve(0)).isZero();
+    assertThat(bucket.reserve(0)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+    assertThat(bucket.reserve(0)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+    // tokens are given back over time
+    assertThat(bucket.reserve(TimeUnit.SECONDS.toNanos(10))).isZero();
+    assertThat(bucket.reserve(TimeUnit.SECONDS.toNanos(10))).isZero();
+    assertThat(bucket.reserve(TimeUnit.SECONDS.toNanos(10))).isZero();
+    assertThat(bucket.reserve(TimeUnit.SECONDS.toNanos(10))).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+  }
+
+  @Test
+  public void checksAreScheduledPerServer() {
+    coordinator.check(SERVER_URL, null, "task1");
+    coordinator.check(SERVER_URL, null, "task2");
+    coordinator.check(SERVER_URL, null, "task3");
+    coordinator.check("http://other", null, "task4");
+
+    ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+    verify(scheduler, times(4)).schedule(any(Runnable.class), delays.capture(), eq(TimeUnit.NANOSECONDS));
+    assertThat(delays.getAllValues()).containsExactly(0L, 0L, TimeUnit.MILLISECONDS.toNanos(500), 0L);
+  }
+
+  @Test
+  public void stepsWaitingForTheSameTaskShareTheCheck() {
+    CompletableFuture<ProjectInformation> check1 = coordinator.check(SERVER_URL, "token", "task1");
+    CompletableFuture<ProjectInformation> check2 = coordinator.check(SERVER_URL + "/", "token", "task1");
+    runScheduled(1);
+
+    assertThat(fetched).containsExactly(SERVER_URL + " token task1");
+    ProjectInformation info = new ProjectInformation();
+    info.setCeStatus("SUCCESS");
+    info.setStatus("OK");
+    fetches.get(0).complete(info);
+
+    assertThat(check1.join().getStatus()).isEqualTo("OK");
+    assertThat(check2.join().getCeStatus()).isEqualTo("success");
+    // each step gets its own copy
+    assertThat(check1.join()).isNotSameAs(check2.join());
+    assertThat(coordinator.pendingChecks()).isZero();
+
+    // a later check asks again
+    coordinator.check(SERVER_URL, "token", "task1");
+    runScheduled(2);
+    assertThat(fetched).hasSize(2);
+  }
+
+  @Test
+  public void stepsWithDifferentTokensDoNotShareTheCheck() {
+    coordinator.check(SERVER_URL, "token1", "task1");
+    coordinator.check(SERVER_URL, "token2", "task1");
+    coordinator.check(SERVER_URL, null, "task1");
+    ArgumentCaptor<Runnable> scheduled = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler, times(3)).schedule(scheduled.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+    scheduled.getAllValues().forEach(Runnable::run);
+
+    assertThat(fetched).containsExactly(SERVER_URL + " token1 task1", SERVER_URL + " token2 task1", SERVER_URL + " null task1");
+    assertThat(coordinator.pendingChecks()).isEqualTo(3);
+  }
+
+  @Test
+  public void failuresArePropagated() {
+    CompletableFuture<ProjectInformation> check = coordinator.check(SERVER_URL, null, "task1");
+    runScheduled(1);
+
+    fetches.get(0).completeExceptionally(new IllegalStateException("boom"));
+
+    assertThatThrownBy(check::join).hasRootCauseMessage("boom");
+    assertThat(coordinator.pendingChecks()).isZero();
+  }
+
+  /**
+   * Runs the last scheduled check
+   */
+  private void runScheduled(int scheduled) {
+    ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler, times(scheduled)).schedule(runnable.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+    runnable.getValue().run();
+  }
+}
@@ -19,21 +19,53 @@
  */
 package org.sonarsource.scanner.jenkins.pipeline;
 
-import java.util.HashMap;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import hudson.plugins.sonar.SonarGlobalConfiguration;
+import hudson.plugins.sonar.SonarInstallation;
+import hudson.util.Secret;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.WithoutJenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class SonarQubeWebHookTest {
 
   @Rule
   public JenkinsRule jenkins = new JenkinsRule();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @WithoutJenkins
   @Test
   public void improveCoverage() {
@@ -51,7 +83,7 @@ public class SonarQubeWebHookTest {
   @Test
   public void testListener() throws Exception {
 
-    Map<String, String> eventsPerListener = new HashMap<>();
+    Map<String, String> eventsPerListener = new ConcurrentHashMap<>();
 
     jenkins.postJSON("sonarqube-webhook/", "{\n" +
       "\"taskId\":\"AVpBJY0hh5C8Sya1ZSgH\",\n" +
@@ -59,6 +91,7 @@ public class SonarQubeWebHookTest {
       "\"qualityGate\":{\"status\":\"OK\"},\n" +
       "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
       "}");
+    waitForDispatch();
 
     SonarQubeWebHook.get().addListener(
       event -> eventsPerListener.put("ListenerA", event.getPayload().getTaskId() + event.getPayload().getTaskStatus() + event.getPayload().getQualityGateStatus()));
@@ -71,6 +104,7 @@ public class SonarQubeWebHookTest {
       "\"qualityGate\":{\"status\":\"OK\"},\n" +
       "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
       "}");
+    waitForDispatch();
 
     assertThat(eventsPerListener).containsOnly(entry("ListenerA", "AVpBJY0hh5C8Sya1ZSgHSUCCESSOK"),
       entry("ListenerB", "AVpBJY0hh5C8Sya1ZSgHSUCCESSOK"));
@@ -83,9 +117,256 @@ public class SonarQubeWebHookTest {
       "\"status\":\"SUCCESS\",\n" +
      "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
       "}");
+    waitForDispatch();
 
     assertThat(eventsPerListener).containsOnly(entry("ListenerA", "AVpBJY0hh5C8Sya1ZSgHSUCCESSNONE"),
       entry("ListenerB", "AVpBJY0hh5C8Sya1ZSgHSUCCESSNONE"));
   }
 
+  @Test
+  public void testTaskListener() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    Consumer<SonarQubeWebHook.WebhookEvent> listener = event -> received.add(event.getPayload().getTaskId());
+    SonarQubeWebHook.get().addListener("task1", listener);
+
+    postEvent("task2");
+    assertThat(received).isEmpty();
+
+    postEvent("task1");
+    assertThat(received).containsExactly("task1");
+
+    SonarQubeWebHook.get().removeListener("task1", listener);
+    assertThat(SonarQubeWebHook.get().hasListeners()).isFalse();
+
+    postEvent("task1");
+    assertThat(received).containsExactly("task1");
+  }
+
+  @WithoutJenkins
+  @Test
+  public void removeListenerOnlyOnce() {
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run);
+    Consumer<SonarQubeWebHook.WebhookEvent> listener = e -> {
+    };
+    aut.addListener("task1", listener);
+
+    // the caller which removes the listener is the one allowed to complete the step
+    assertThat(aut.removeListener("task1", listener)).isTrue();
+    assertThat(aut.removeListener("task1", listener)).isFalse();
+    assertThat(aut.removeListener("task2", listener)).isFalse();
+  }
+
+  @WithoutJenkins
+  @Test
+  public void rejectEventsWhenSaturated() throws Exception {
+    SonarQubeWebHook aut = new SonarQubeWebHook(command -> {
+      throw new RejectedExecutionException();
+    });
+    StaplerRequest req = mock(StaplerRequest.class);
+    StaplerResponse rsp = mock(StaplerResponse.class);
+    when(req.getInputStream()).thenReturn(body("{\"taskId\":\"task1\",\"status\":\"SUCCESS\","
+      + "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}}"));
+
+    aut.doIndex(req, rsp);
+
+    verify(rsp).setHeader("Retry-After", "10");
+    verify(rsp).sendError(eq(503), anyString());
+    assertThat(aut.getRejectedEvents()).isEqualTo(1);
+    assertThat(aut.getPendingEvents()).isZero();
+    // still available to steps starting later
+    assertThat(aut.getWebhookEventForTaskId("task1")).isNotNull();
+  }
+
+  @WithoutJenkins
+  @Test
+  public void rejectTooLargePayloads() throws Exception {
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run);
+    StringBuilder payload = new StringBuilder("{\"taskId\":\"task1\",\"status\":\"SUCCESS\","
+      + "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}, \"padding\": \"");
+    while (payload.length() <= 1024 * 1024) {
+      payload.append("0123456789");
+    }
+    payload.append("\"}");
+
+    // size not announced
+    StaplerRequest req = mock(StaplerRequest.class);
+    when(req.getContentLengthLong()).thenReturn(-1L);
+    when(req.getInputStream()).thenReturn(body(payload.toString()));
+    StaplerResponse rsp = mock(StaplerResponse.class);
+    aut.doIndex(req, rsp);
+    verify(rsp).sendError(eq(413), anyString());
+
+    // announced
+    req = mock(StaplerRequest.class);
+    when(req.getContentLengthLong()).thenReturn((long) payload.length());
+    rsp = mock(StaplerResponse.class);
+    aut.doIndex(req, rsp);
+    verify(rsp).sendError(eq(413), anyString());
+    verify(req, never()).getInputStream();
+
+    assertThat(aut.getWebhookEventForTaskId("task1")).isNull();
+  }
+
+  @WithoutJenkins
+  @Test
+  public void rejectPayloadsWithoutTask() throws Exception {
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run);
+    StaplerRequest req = mock(StaplerRequest.class);
+    when(req.getInputStream()).thenReturn(body("{\"status\":\"SUCCESS\", \"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000\"}}"));
+    StaplerResponse rsp = mock(StaplerResponse.class);
+
+    aut.doIndex(req, rsp);
+
+    verify(rsp).sendError(eq(400), anyString());
+  }
+
+  @WithoutJenkins
+  @Test
+  public void findEventsReceivedBeforeRestart() throws Exception {
+    File file = new File(temp.getRoot(), "events.journal");
+    WebhookEventJournal journal = new WebhookEventJournal(file, Duration.ofHours(1));
+    StaplerRequest req = mock(StaplerRequest.class);
+    when(req.getInputStream()).thenReturn(body("{\"taskId\":\"task1\",\"status\":\"SUCCESS\","
+      + "\"qualityGate\":{\"status\":\"OK\"},\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}}"));
+    when(req.getHeader("X-Sonar-Webhook-HMAC-SHA256")).thenReturn("signature");
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run, journal);
+    aut.addListener("task1", e -> {
+    });
+    aut.doIndex(req, mock(StaplerResponse.class));
+    journal.close();
+
+    SonarQubeWebHook restarted = new SonarQubeWebHook(Runnable::run, new WebhookEventJournal(file, Duration.ofHours(1)));
+
+    SonarQubeWebHook.WebhookEvent event = restarted.getWebhookEventForTaskId("task1");
+    assertThat(event).isNotNull();
+    assertThat(event.getPayload().getTaskStatus()).isEqualTo("SUCCESS");
+    assertThat(event.getPayload().getQualityGateStatus()).isEqualTo("OK");
+    assertThat(event.getReceivedSignature()).isEqualTo("signature");
+    assertThat(restarted.getWebhookEventForTaskId("task2")).isNull();
+  }
+
+  @Test
+  public void checkSignatureOfEventsReceivedBeforeRestart() throws Exception {
+    File file = new File(temp.getRoot(), "events.journal");
+    WebhookEventJournal journal = new WebhookEventJournal(file, Duration.ofHours(1));
+    // not UTF-8: the signature only matches the exact bytes received
+    byte[] payload = ("{\"taskId\":\"task1\",\"status\":\"SUCCESS\",\"qualityGate\":{\"status\":\"OK\"},"
+      + "\"project\": {\"name\": \"caf\u00e9\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}}").getBytes(StandardCharsets.ISO_8859_1);
+    StaplerRequest req = mock(StaplerRequest.class);
+    when(req.getInputStream()).thenReturn(body(payload));
+    when(req.getHeader("X-Sonar-Webhook-HMAC-SHA256")).thenReturn(new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "secret").hmacHex(payload));
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run, journal);
+    aut.addListener("task1", e -> {
+    });
+    aut.doIndex(req, mock(StaplerResponse.class));
+    journal.close();
+
+    SonarQubeWebHook restarted = new SonarQubeWebHook(Runnable::run, new WebhookEventJournal(file, Duration.ofHours(1)));
+
+    SonarQubeWebHook.WebhookEvent event = restarted.getWebhookEventForTaskId("task1");
+    StringCredentialsImpl secret = new StringCredentialsImpl(CredentialsScope.GLOBAL, "webhook-secret", "", Secret.fromString("secret"));
+    assertThat(event.verify("webhook-secret", secret)).isTrue();
+  }
+
+  @Test
+  public void doNotJournalNorCheckEventsNobodyWaitsFor() throws Exception {
+    StringCredentialsImpl secret = new StringCredentialsImpl(CredentialsScope.GLOBAL, "webhook-secret", "", Secret.fromString("secret"));
+    CredentialsProvider.lookupStores(jenkins.jenkins).iterator().next().addCredentials(Domain.global(), secret);
+    jenkins.jenkins.getDescriptorByType(SonarGlobalConfiguration.class).setInstallations(
+      new SonarInstallation("sq", "http://localhost:9000", null, null, "webhook-secret", null, null, null, null));
+    WebhookEventJournal journal = new WebhookEventJournal(new File(temp.getRoot(), "events.journal"), Duration.ofHours(1));
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run, journal);
+    List<SonarQubeWebHook.WebhookEvent> received = new CopyOnWriteArrayList<>();
+    aut.addListener(received::add);
+
+    // even signed with the secret of an installation
+    String payload = "{\"taskId\":\"task1\",\"status\":\"SUCCESS\","
+      + "\"qualityGate\":{\"status\":\"OK\"},\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}}";
+    StaplerRequest req = mock(StaplerRequest.class);
+    when(req.getInputStream()).thenReturn(body(payload));
+    when(req.getHeader("X-Sonar-Webhook-HMAC-SHA256")).thenReturn(new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "secret").hmacHex(payload));
+    aut.doIndex(req, mock(StaplerResponse.class));
+
+    assertThat(journal.size()).isZero();
+    assertThat(received).hasSize(1);
+    assertThat(received.get(0).isVerifiedWith(secret.getSecret())).isFalse();
+    journal.close();
+  }
+
+  @Test
+  public void checkSignatureOnceWithInstallationSecret() throws Exception {
+    StringCredentialsImpl secret = new StringCredentialsImpl(CredentialsScope.GLOBAL, "webhook-secret", "", Secret.fromString("secret"));
+    CredentialsProvider.lookupStores(jenkins.jenkins).iterator().next().addCredentials(Domain.global(), secret);
+    jenkins.jenkins.getDescriptorByType(SonarGlobalConfiguration.class).setInstallations(
+      new SonarInstallation("sq", "http://localhost:9000", null, null, "webhook-secret", null, null, null, null));
+    SonarQubeWebHook aut = new SonarQubeWebHook(Runnable::run);
+    List<SonarQubeWebHook.WebhookEvent> received = new CopyOnWriteArrayList<>();
+    aut.addListener("task1", received::add);
+
+    String payload = "{\"taskId\":\"task1\",\"status\":\"SUCCESS\",\"qualityGate\":{\"status\":\"OK\"},"
+      + "\"project\": {\"name\": \"f\u00f6\u00f6\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}}";
+    StaplerRequest req = mock(StaplerRequest.class);
+    when(req.getInputStream()).thenReturn(body(payload));
+    when(req.getHeader("X-Sonar-Webhook-HMAC-SHA256")).thenReturn(new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "secret").hmacHex(payload));
+    aut.doIndex(req, mock(StaplerResponse.class));
+
+    assertThat(received).hasSize(1);
+    SonarQubeWebHook.WebhookEvent event = received.get(0);
+    assertThat(event.isVerifiedWith(Secret.fromString("secret"))).isTrue();
+    // the same secret held by other credentials reuses the first check
+    StringCredentialsImpl copy = new StringCredentialsImpl(CredentialsScope.GLOBAL, "copy", "", Secret.fromString("secret"));
+    assertThat(event.verify("copy", copy)).isTrue();
+    // credentials with the same id but another secret, like a folder credential shadowing the global one, are checked again
+    StringCredentialsImpl shadowing = new StringCredentialsImpl(CredentialsScope.GLOBAL, "webhook-secret", "", Secret.fromString("other"));
+    assertThat(event.isVerifiedWith(shadowing.getSecret())).isFalse();
+    assertThat(event.verify("webhook-secret", shadowing)).isFalse();
+  }
+
+  private static ServletInputStream body(String content) {
+    return body(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static ServletInputStream body(byte[] content) {
+    ByteArrayInputStream in = new ByteArrayInputStream(content);
+    return new ServletInputStream() {
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int read() {
+        return in.read();
+      }
+    };
+  }
+
+  private void waitForDispatch() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (SonarQubeWebHook.get().getPendingEvents() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(SonarQubeWebHook.get().getPendingEvents()).isZero();
+  }
+
+  private void postEvent(String taskId) throws Exception {
+    jenkins.postJSON("sonarqube-webhook/", "{\n" +
+      "\"taskId\":\"" + taskId + "\",\n" +
+      "\"status\":\"SUCCESS\",\n" +
+      "\"qualityGate\":{\"status\":\"OK\"},\n" +
+      "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
+      "}");
+    waitForDispatch();
+  }
+
 }
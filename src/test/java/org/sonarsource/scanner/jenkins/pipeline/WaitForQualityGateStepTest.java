@@ -42,8 +42,10 @@ import org.apache.commons.codec.digest.HmacUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.support.actions.PauseAction;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Rule;
@@ -120,7 +122,7 @@ public class WaitForQualityGateStepTest {
     story.addStep(new Statement() {
       @Override
       public void evaluate() throws Throwable {
-        SonarQubeWebHook.get().listeners.clear();
+        SonarQubeWebHook.get().clearListeners();
         WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, JOB_NAME);
         p.setDefinition(new CpsFlowDefinition("waitForQualityGate()", true));
         WorkflowRun r = story.j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
@@ -156,8 +158,10 @@ public class WaitForQualityGateStepTest {
         submitWebHook("another task", "FAILURE", "KO");
         submitWebHook(FAKE_TASK_ID_1, "SUCCESS", "OK");
 
-        pipeline.waitForStart();
+        WorkflowRun b = pipeline.waitForStart();
         story.j.assertBuildStatusSuccess(pipeline);
+        // the step completed as soon as it started, without leaving a pause open
+        assertThat(new DepthFirstScanner().allNodes(b.getExecution())).noneMatch(PauseAction::isPaused);
       }
     });
   }
@@ -288,7 +292,52 @@ public class WaitForQualityGateStepTest {
         waitForStepToWait(b);
         b.doStop();
         story.j.assertBuildStatus(Result.ABORTED, pipeline);
-        assertThat(SonarQubeWebHook.get().listeners).isEmpty();
+        assertThat(SonarQubeWebHook.get().hasListeners()).isFalse();
+      }
+    });
+  }
+
+  @Test
+  public void waitForQualityGateTimeout() {
+    story.addStep(new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        handler.status1 = "PENDING";
+        QueueTaskFuture<WorkflowRun> pipeline = submitPipelineWithStepArgs(true, false, "timeout: 1");
+
+        WorkflowRun b = story.j.assertBuildStatus(Result.FAILURE, pipeline);
+        story.j.assertLogContains("Timeout reached while waiting for SonarQube task '" + FAKE_TASK_ID_1 + "'", b);
+        if (!declarative) {
+          story.j.assertLogContains("QG1 status: TIMEOUT", b);
+        }
+        assertThat(SonarQubeWebHook.get().hasListeners()).isFalse();
+      }
+    });
+  }
+
+  @Test
+  public void waitForQualityGate_keeps_waiting_for_webhook_after_polling_stopped() {
+    story.addStep(new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        handler.status1 = "PENDING";
+        QueueTaskFuture<WorkflowRun> pipeline = submitPipelineWithStepArgs(true, false, "poll: true, pollUntil: 3");
+        WorkflowRun b = pipeline.waitForStart();
+        waitForStepToWait(b);
+        while (FallbackPoller.get().watchedTasks() == 0 && b.isBuilding()) {
+          Thread.sleep(100);
+        }
+        assertThat(FallbackPoller.get().watchedTasks()).isEqualTo(1);
+
+        while (FallbackPoller.get().watchedTasks() > 0 && b.isBuilding()) {
+          Thread.sleep(500);
+        }
+        assertThat(b.isBuilding()).isTrue();
+        assertThat(SonarQubeWebHook.get().hasListeners()).isTrue();
+
+        submitWebHook(FAKE_TASK_ID_1, "SUCCESS", "OK", b);
+        story.j.assertBuildStatusSuccess(pipeline);
+        assertThat(FallbackPoller.get().watchedTasks()).isZero();
       }
     });
   }
@@ -452,7 +501,7 @@ public class WaitForQualityGateStepTest {
 
   private void waitForStepToWait(WorkflowRun b) throws InterruptedException {
     // Wait for the step to register to the webhook listener
-    while (SonarQubeWebHook.get().listeners.isEmpty() && b.isBuilding()) {
+    while (!SonarQubeWebHook.get().hasListeners() && b.isBuilding()) {
       Thread.sleep(500);
     }
   }
@@ -462,7 +511,11 @@ public class WaitForQualityGateStepTest {
   }
 
   private QueueTaskFuture<WorkflowRun> submitPipeline(boolean specifyServer, boolean twoProjects, @Nullable String webhookSecretId) throws IOException, Descriptor.FormException {
-    SonarQubeWebHook.get().listeners.clear();
+    return submitPipelineWithStepArgs(specifyServer, twoProjects, webhookSecretId == null ? "" : ("webhookSecretId: '" + webhookSecretId + "'"));
+  }
+
+  private QueueTaskFuture<WorkflowRun> submitPipelineWithStepArgs(boolean specifyServer, boolean twoProjects, String stepArgs) throws IOException, Descriptor.FormException {
+    SonarQubeWebHook.get().clearListeners();
     story.j.jenkins.getDescriptorByType(SonarGlobalConfiguration.class)
       .setInstallations(
         new SonarInstallation(SONAR_INSTALLATION_NAME, "http://localhost:" + port + "/sonarqube", null, null, null, null, null, null, null));
@@ -474,35 +527,35 @@ public class WaitForQualityGateStepTest {
     String reportTaskContent2 = "dashboardUrl=" + serverUrl + "/dashboard\\n"
       + "ceTaskId=" + FAKE_TASK_ID_2 + "\\nserverUrl=" + serverUrl + "\\nprojectKey=foo";
     p.setDefinition(new CpsFlowDefinition(
-      script(reportTaskContent1, reportTaskContent2, specifyServer, twoProjects, webhookSecretId),
+      script(reportTaskContent1, reportTaskContent2, specifyServer, twoProjects, stepArgs),
       true));
     return p.scheduleBuild2(0);
   }
 
-  private String script(String reportTaskContent1, String reportTaskContent2, boolean specifyServer, boolean twoProjects, @Nullable String webhookSecretId) {
+  private String script(String reportTaskContent1, String reportTaskContent2, boolean specifyServer, boolean twoProjects, String stepArgs) {
     if (this.declarative) {
       StringBuilder pipeline = new StringBuilder();
       pipeline.append("pipeline {\n");
       pipeline.append("  agent none\n");
       pipeline.append("  stages {\n");
-      declarativePipelineOneProject(1, reportTaskContent1, pipeline, webhookSecretId);
+      declarativePipelineOneProject(1, reportTaskContent1, pipeline, stepArgs);
       if (twoProjects) {
-        declarativePipelineOneProject(2, reportTaskContent2, pipeline, webhookSecretId);
+        declarativePipelineOneProject(2, reportTaskContent2, pipeline, stepArgs);
       }
       pipeline.append("  }\n");
       pipeline.append("}");
       return pipeline.toString();
     } else {
       StringBuilder pipeline = new StringBuilder();
-      scriptedPipelineOneProject(1, reportTaskContent1, specifyServer, pipeline, webhookSecretId);
+      scriptedPipelineOneProject(1, reportTaskContent1, specifyServer, pipeline, stepArgs);
       if (twoProjects) {
-        scriptedPipelineOneProject(2, reportTaskContent2, specifyServer, pipeline, webhookSecretId);
+        scriptedPipelineOneProject(2, reportTaskContent2, specifyServer, pipeline, stepArgs);
       }
       return pipeline.toString();
     }
   }
 
-  private void declarativePipelineOneProject(int id, String reportTaskContent, StringBuilder pipeline, @Nullable String webhookSecretId) {
+  private void declarativePipelineOneProject(int id, String reportTaskContent, StringBuilder pipeline, String stepArgs) {
     pipeline.append("    stage(\"Scan " + id + "\") {\n");
     pipeline.append("      agent any\n");
     pipeline.append("      steps {\n");
@@ -522,16 +575,16 @@ public class WaitForQualityGateStepTest {
     pipeline.append("    }\n");
     pipeline.append("    stage(\"Quality Gate " + id + "\") {\n");
     pipeline.append("      steps {\n");
-    if (webhookSecretId == null) {
+    if (stepArgs.isEmpty()) {
       pipeline.append("        waitForQualityGate abortPipeline: true \n");
     } else {
-      pipeline.append("        waitForQualityGate abortPipeline: true, webhookSecretId: '" + webhookSecretId + "' \n");
+      pipeline.append("        waitForQualityGate abortPipeline: true, " + stepArgs + " \n");
     }
     pipeline.append("      }\n");
     pipeline.append("    }\n");
   }
 
-  private void scriptedPipelineOneProject(int id, String reportTaskContent, boolean specifyServer, StringBuilder pipeline, @Nullable String webhookSecretId) {
+  private void scriptedPipelineOneProject(int id, String reportTaskContent, boolean specifyServer, StringBuilder pipeline, String stepArgs) {
     pipeline.append("node {\n");
     pipeline.append("  dir(path: 'project" + id + "') {\n");
     if (specifyServer) {
@@ -550,11 +603,8 @@ public class WaitForQualityGateStepTest {
     pipeline.append("    }\n");
     pipeline.append("  }\n");
     pipeline.append("}\n");
-    if (webhookSecretId == null) {
-      pipeline.append("def qg" + id + " = waitForQualityGate();\n");
-    } else {
-      pipeline.append("def qg" + id + " = waitForQualityGate(webhookSecretId: '"+ webhookSecretId + "');\n");
-    }
+    pipeline.append("def qg" + id + " = waitForQualityGate(" + stepArgs + ");\n");
+    pipeline.append("echo \"QG" + id + " status: ${qg" + id + ".status}\"\n");
     pipeline.append("if (qg" + id + ".status != 'OK') {\n");
     pipeline.append("  error 'QG" + id + " failure'\n");
     pipeline.append("}\n");
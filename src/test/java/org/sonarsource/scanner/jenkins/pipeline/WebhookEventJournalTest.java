@@ -0,0 +1,258 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebhookEventJournalTest {
+  private static final Duration RETENTION = Duration.ofHours(24);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1_000_000L);
+  private File file;
+  private WebhookEventJournal journal;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(temp.getRoot(), "events.journal");
+    journal = open();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    journal.close();
+  }
+
+  @Test
+  public void getLastEventOfTask() throws IOException {
+    journal.append("task1", utf8("{\"status\":\"PENDING\"}"), null);
+    journal.append("task2", utf8("{\"taskId\":\"task2\"}"), "signature");
+    journal.append("task1", utf8("{\"status\":\"SUCCESS\"}"), "sig1");
+
+    WebhookEventJournal.Record record = journal.get("task1");
+    assertThat(record.getTaskId()).isEqualTo("task1");
+    assertThat(record.getPayload()).isEqualTo(utf8("{\"status\":\"SUCCESS\"}"));
+    assertThat(record.getSignature()).isEqualTo("sig1");
+    assertThat(record.getReceivedAt()).isEqualTo(now.get());
+    assertThat(journal.get("task2").getSignature()).isEqualTo("signature");
+    assertThat(journal.get("unknown")).isNull();
+  }
+
+  @Test
+  public void keepEventsAcrossRestarts() throws IOException {
+    journal.append("task1", utf8("{\"é\":\"payload\"}"), null);
+    journal.close();
+
+    journal = open();
+
+    WebhookEventJournal.Record record = journal.get("task1");
+    assertThat(record.getPayload()).isEqualTo(utf8("{\"é\":\"payload\"}"));
+    assertThat(record.getSignature()).isNull();
+  }
+
+  @Test
+  public void keepPayloadBytesAsReceived() throws IOException {
+    // not valid UTF-8: the signature was computed on these bytes, which must not be decoded and encoded again
+    byte[] payload = "{\"name\":\"caf\u00e9\"}".getBytes(StandardCharsets.ISO_8859_1);
+    journal.append("task1", payload, "signature");
+    journal.close();
+
+    journal = open();
+
+    assertThat(journal.get("task1").getPayload()).isEqualTo(payload);
+  }
+
+  @Test
+  public void ignoreExpiredEvents() throws IOException {
+    journal.append("task1", utf8("payload"), null);
+    now.addAndGet(RETENTION.toMillis() + 1);
+    journal.append("task2", utf8("payload"), null);
+
+    assertThat(journal.get("task1")).isNull();
+    assertThat(journal.get("task2")).isNotNull();
+
+    journal.close();
+    journal = open();
+    assertThat(journal.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void dropIncompleteLastRecord() throws IOException {
+    journal.append("task1", utf8("payload1"), null);
+    journal.append("task2", utf8("payload2"), null);
+    long length = journal.fileSize();
+    journal.close();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(length - 3);
+    }
+
+    journal = open();
+
+    assertThat(journal.get("task1").getPayload()).isEqualTo(utf8("payload1"));
+    assertThat(journal.get("task2")).isNull();
+    // appending after the truncated record still works
+    journal.append("task3", utf8("payload3"), null);
+    journal.close();
+    journal = open();
+    assertThat(journal.get("task3").getPayload()).isEqualTo(utf8("payload3"));
+  }
+
+  @Test
+  public void ignoreCorruptedRecord() throws IOException {
+    journal.append("task1", utf8("payload1"), null);
+    long firstEnd = journal.fileSize();
+    journal.append("task2", utf8("payload2"), null);
+    journal.close();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(firstEnd + 20);
+      raf.write('X');
+    }
+
+    journal = open();
+
+    assertThat(journal.get("task1")).isNotNull();
+    assertThat(journal.get("task2")).isNull();
+    assertThat(file.length()).isEqualTo(firstEnd);
+  }
+
+  @Test
+  public void ignoreOtherFiles() throws IOException {
+    journal.close();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      raf.writeBytes("not a journal");
+    }
+
+    journal = open();
+
+    assertThat(journal.size()).isZero();
+    journal.append("task1", utf8("payload1"), null);
+    assertThat(journal.get("task1")).isNotNull();
+  }
+
+  @Test
+  public void compactDropsReplacedAndExpiredEvents() throws IOException {
+    String payload = new String(new char[1024]).replace('\0', 'x');
+    for (int i = 0; i < 200; i++) {
+      journal.append("task" + (i % 10), utf8(payload + i), null);
+    }
+    journal.append("expired", utf8(payload), null);
+    now.addAndGet(RETENTION.toMillis() / 2);
+    journal.append("recent", utf8(payload), null);
+    now.addAndGet(RETENTION.toMillis() / 2 + 1);
+    long before = journal.fileSize();
+
+    journal.compact();
+
+    assertThat(journal.fileSize()).isLessThan(before / 10);
+    assertThat(file.length()).isEqualTo(journal.fileSize());
+    assertThat(journal.get("recent")).isNotNull();
+    assertThat(journal.get("expired")).isNull();
+    // the tasks appended at the very beginning are now too old
+    assertThat(journal.get("task0")).isNull();
+
+    journal.close();
+    journal = open();
+    assertThat(journal.get("recent").getPayload()).isEqualTo(utf8(payload));
+  }
+
+  @Test
+  public void compactKeepsLastEventOfEachTask() throws IOException {
+    String payload = new String(new char[1024]).replace('\0', 'x');
+    for (int i = 0; i < 200; i++) {
+      journal.append("task" + (i % 10), utf8(payload + i), null);
+    }
+
+    journal.compact();
+
+    assertThat(journal.size()).isEqualTo(10);
+    assertThat(journal.get("task3").getPayload()).isEqualTo(utf8(payload + 193));
+    journal.append("task3", utf8("new"), null);
+    assertThat(journal.get("task3").getPayload()).isEqualTo(utf8("new"));
+    journal.close();
+    journal = open();
+    assertThat(journal.get("task3").getPayload()).isEqualTo(utf8("new"));
+    assertThat(journal.get("task9").getPayload()).isEqualTo(utf8(payload + 199));
+  }
+
+  @Test
+  public void dontCompactSmallJournal() throws IOException {
+    journal.append("task1", utf8("payload1"), null);
+    journal.append("task1", utf8("payload2"), null);
+    long before = journal.fileSize();
+
+    journal.compact();
+
+    assertThat(journal.fileSize()).isEqualTo(before);
+  }
+
+  @Test
+  public void dropOldestEventsBeyondMaxEvents() throws IOException {
+    journal.close();
+    journal = new WebhookEventJournal(file, RETENTION, WebhookEventJournal.DEFAULT_MAX_BYTES, 2, now::get);
+    journal.append("task1", utf8("payload"), null);
+    journal.append("task2", utf8("payload"), null);
+    journal.append("task1", utf8("payload"), null);
+    journal.append("task3", utf8("payload"), null);
+
+    assertThat(journal.size()).isEqualTo(2);
+    assertThat(journal.get("task2")).isNull();
+    assertThat(journal.get("task1")).isNotNull();
+    assertThat(journal.get("task3")).isNotNull();
+  }
+
+  @Test
+  public void keepFileBelowMaxBytes() throws IOException {
+    journal.close();
+    journal = new WebhookEventJournal(file, RETENTION, 10_000, 1_000, now::get);
+    String payload = StringUtils.repeat("x", 1_000);
+    for (int i = 0; i < 100; i++) {
+      journal.append("task" + i, utf8(payload), null);
+      assertThat(journal.fileSize()).isLessThanOrEqualTo(10_000);
+    }
+
+    assertThat(journal.get("task99").getPayload()).isEqualTo(utf8(payload));
+    assertThat(journal.get("task0")).isNull();
+    assertThat(file.length()).isLessThanOrEqualTo(10_000);
+  }
+
+  private static byte[] utf8(String payload) {
+    return payload.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private WebhookEventJournal open() {
+    return new WebhookEventJournal(file, RETENTION, now::get);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import hudson.plugins.sonar.SonarGlobalConfiguration;
+import hudson.plugins.sonar.SonarInstallation;
+import hudson.util.Secret;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Load on the {@code sonarqube-webhook} endpoint of a running Jenkins: concurrent senders post signed or unsigned
+ * events for tasks that many steps are waiting for. Sample time gives the p50/p99 latencies and the GC profiler of
+ * {@link jmh.BenchmarkRunner} the allocation rate. Run with {@code mvn test -Dbenchmark}.
+ * <p>
+ * {@link #ingest} measures the request alone, the listeners being called afterwards by the dispatcher. Senders don't
+ * get ahead of the dispatcher by more than {@link Sender#MAX_IN_FLIGHT} events, so that all the events are accepted.
+ * {@link #ingestAndDispatch} waits for the listeners to be called: the difference is the dispatch cost. Waiting steps
+ * are simulated by listeners doing what {@code WaitForQualityGateStep} does with an event, without running pipelines.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+public class WebhookIngestionBenchmark {
+  private static final String SECRET_ID = "webhook-secret";
+  private static final String SECRET = "0123456789abcdef";
+  private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+  @State(Scope.Benchmark)
+  public static class JenkinsState extends JmhBenchmarkState {
+    @Param({"false", "true"})
+    public boolean signed;
+
+    /**
+     * Number of steps waiting for each event
+     */
+    @Param({"1", "100"})
+    public int listenersPerEvent;
+
+    OkHttpClient client;
+    String url;
+
+    @Override
+    public void setup() throws Exception {
+      client = new OkHttpClient();
+      url = getJenkinsURL() + SonarQubeWebHook.URLNAME + "/";
+      if (signed) {
+        StringCredentialsImpl secret = new StringCredentialsImpl(CredentialsScope.GLOBAL, SECRET_ID, "", Secret.fromString(SECRET));
+        CredentialsProvider.lookupStores(getJenkins()).iterator().next().addCredentials(Domain.global(), secret);
+      }
+      getJenkins().getDescriptorByType(SonarGlobalConfiguration.class).setInstallations(
+        new SonarInstallation("sq", "http://localhost:9000", null, null, signed ? SECRET_ID : null, null, null, null, null));
+    }
+
+    @Override
+    public void tearDown() {
+      client.dispatcher().executorService().shutdown();
+      client.connectionPool().evictAll();
+    }
+  }
+
+  /**
+   * Each sender posts events for its own task, waited for by {@link JenkinsState#listenersPerEvent} steps
+   */
+  @State(Scope.Thread)
+  public static class Sender {
+    private static final AtomicInteger SENDERS = new AtomicInteger();
+
+    /**
+     * Events of a sender accepted but not dispatched yet, far below the dispatcher queue of all the senders
+     */
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private final List<Consumer<SonarQubeWebHook.WebhookEvent>> listeners = new ArrayList<>();
+    private String taskId;
+    private Request request;
+    /**
+     * Events accepted by Jenkins, counted by the sending thread
+     */
+    private long sent;
+    /**
+     * Events dispatched to the listeners, counted by the dispatcher
+     */
+    private long dispatched;
+
+    @Setup
+    public void setUp(JenkinsState jenkins) {
+      taskId = "task-" + SENDERS.incrementAndGet();
+      String payload = "{\"serverUrl\":\"http://localhost:9000\",\"taskId\":\"" + taskId + "\",\"status\":\"SUCCESS\","
+        + "\"analysedAt\":\"2024-03-01T10:00:00+0000\",\"revision\":\"c739069ec7105e01303e8b3065a81141aad9f129\","
+        + "\"project\":{\"key\":\"project\",\"name\":\"Project\",\"url\":\"http://localhost:9000/dashboard?id=project\"},"
+        + "\"properties\":{},\"qualityGate\":{\"conditions\":[{\"errorThreshold\":\"1\",\"metric\":\"new_security_rating\","
+        + "\"onLeakPeriod\":true,\"operator\":\"GREATER_THAN\",\"status\":\"OK\",\"value\":\"1\"}],\"name\":\"Sonar way\","
+        + "\"status\":\"OK\"}}";
+      Request.Builder builder = new Request.Builder().url(jenkins.url).post(RequestBody.create(payload, JSON));
+      if (jenkins.signed) {
+        builder.addHeader("X-Sonar-Webhook-HMAC-SHA256", new HmacUtils(HmacAlgorithms.HMAC_SHA_256, SECRET).hmacHex(payload));
+      }
+      request = builder.build();
+
+      for (int i = 1; i < jenkins.listenersPerEvent; i++) {
+        listeners.add(Sender::actLikeStep);
+      }
+      listeners.add(event -> onDispatched());
+      listeners.forEach(l -> SonarQubeWebHook.get().addListener(taskId, l));
+    }
+
+    /**
+     * Not measured: waits for the dispatcher to catch up, rather than having the next events answered with 503
+     */
+    @Setup(Level.Invocation)
+    public void waitForDispatcher() throws InterruptedException {
+      if (!awaitDispatched(sent - MAX_IN_FLIGHT + 1, 60)) {
+        throw new IllegalStateException("Events for " + taskId + " not dispatched");
+      }
+    }
+
+    private synchronized void onDispatched() {
+      dispatched++;
+      notifyAll();
+    }
+
+    /**
+     * Waits until {@code count} events were dispatched in total: an event dispatched late can't be taken for the next one
+     */
+    private synchronized boolean awaitDispatched(long count, long timeoutSeconds) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+      while (dispatched < count) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, left);
+      }
+      return true;
+    }
+
+    @TearDown
+    public void tearDown() {
+      listeners.forEach(l -> SonarQubeWebHook.get().removeListener(taskId, l));
+    }
+
+    private static void actLikeStep(SonarQubeWebHook.WebhookEvent event) {
+      if (event.getReceivedSignature() != null) {
+        // the step resolves its own credential, and reuses the check done on reception when the secret is the same
+        StringCredentials credentials = WebhookSecretResolver.resolveGlobal(SECRET_ID);
+        if (credentials == null || !event.verify(SECRET_ID, credentials)) {
+          throw new IllegalStateException("Invalid signature");
+        }
+      }
+      event.getPayload().getQualityGateStatus();
+    }
+  }
+
+  @Benchmark
+  public int ingest(JenkinsState jenkins, Sender sender) throws IOException {
+    try (Response response = jenkins.client.newCall(sender.request).execute()) {
+      // rejected events would be faster samples
+      if (response.code() != 200) {
+        throw new IllegalStateException("Event for " + sender.taskId + " answered with " + response.code());
+      }
+      sender.sent++;
+      return response.code();
+    }
+  }
+
+  @Benchmark
+  public int ingestAndDispatch(JenkinsState jenkins, Sender sender) throws IOException, InterruptedException {
+    int code = ingest(jenkins, sender);
+    if (!sender.awaitDispatched(sender.sent, 10)) {
+      throw new IllegalStateException("Event for " + sender.taskId + " not dispatched");
+    }
+    return code;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import hudson.model.FreeStyleBuild;
+import hudson.util.Secret;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebhookSecretResolverTest {
+
+  @Rule
+  public JenkinsRule jenkins = new JenkinsRule();
+
+  private CredentialsStore store;
+
+  @Before
+  public void setUp() {
+    WebhookSecretResolver.clear();
+    store = CredentialsProvider.lookupStores(jenkins.jenkins).iterator().next();
+  }
+
+  @Test
+  public void reuseResolvedCredentialsUntilCredentialsAreSaved() throws Exception {
+    store.addCredentials(Domain.global(), secret("webhook-secret", "secret"));
+    assertThat(WebhookSecretResolver.resolveGlobal("webhook-secret").getSecret().getPlainText()).isEqualTo("secret");
+
+    // removed without saving, so without notifying the resolver
+    SystemCredentialsProvider.getInstance().getCredentials().clear();
+    assertThat(WebhookSecretResolver.resolveGlobal("webhook-secret")).isNotNull();
+
+    SystemCredentialsProvider.getInstance().save();
+    assertThat(WebhookSecretResolver.resolveGlobal("webhook-secret")).isNull();
+  }
+
+  @Test
+  public void followCredentialsChanges() throws Exception {
+    assertThat(WebhookSecretResolver.resolveGlobal("webhook-secret")).isNull();
+
+    StringCredentialsImpl secret = secret("webhook-secret", "secret");
+    store.addCredentials(Domain.global(), secret);
+    assertThat(WebhookSecretResolver.resolveGlobal("webhook-secret").getSecret().getPlainText()).isEqualTo("secret");
+
+    store.updateCredentials(Domain.global(), secret, secret("webhook-secret", "other"));
+    assertThat(WebhookSecretResolver.resolveGlobal("webhook-secret").getSecret().getPlainText()).isEqualTo("other");
+  }
+
+  @Test
+  public void resolveInContextOfBuild() throws Exception {
+    store.addCredentials(Domain.global(), secret("webhook-secret", "secret"));
+    FreeStyleBuild build = jenkins.buildAndAssertSuccess(jenkins.createFreeStyleProject());
+
+    StringCredentials resolved = WebhookSecretResolver.resolve("webhook-secret", build);
+    assertThat(resolved.getSecret().getPlainText()).isEqualTo("secret");
+    assertThat(WebhookSecretResolver.resolve("unknown", build)).isNull();
+
+    SystemCredentialsProvider.getInstance().getCredentials().clear();
+    assertThat(WebhookSecretResolver.resolve("webhook-secret", build)).isSameAs(resolved);
+    assertThat(WebhookSecretResolver.resolveAgain("webhook-secret", build)).isNull();
+  }
+
+  private static StringCredentialsImpl secret(String id, String secret) {
+    return new StringCredentialsImpl(CredentialsScope.GLOBAL, id, "", Secret.fromString(secret));
+  }
+}
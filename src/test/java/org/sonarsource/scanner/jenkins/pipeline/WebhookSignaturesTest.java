@@ -0,0 +1,64 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebhookSignaturesTest {
+  private static final String PAYLOAD = "{\"taskId\": \"task1\", \"status\": \"SUCCESS\"}";
+  private static final byte[] PAYLOAD_BYTES = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void acceptsSignatureOfPayload() {
+    String signature = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "secret").hmacHex(PAYLOAD);
+
+    assertThat(WebhookSignatures.isValid("valid", "secret", signature, PAYLOAD_BYTES)).isTrue();
+    // prepared key is reused
+    assertThat(WebhookSignatures.isValid("valid", "secret", signature, PAYLOAD_BYTES)).isTrue();
+    assertThat(WebhookSignatures.isValid("valid", "secret", signature.toUpperCase(Locale.ENGLISH), PAYLOAD_BYTES)).isTrue();
+  }
+
+  @Test
+  public void rejectsInvalidSignatures() {
+    String signature = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "secret").hmacHex(PAYLOAD);
+
+    assertThat(WebhookSignatures.isValid("invalid", "other secret", signature, PAYLOAD_BYTES)).isFalse();
+    assertThat(WebhookSignatures.isValid("invalid", "secret", signature, "{}".getBytes(StandardCharsets.UTF_8))).isFalse();
+    assertThat(WebhookSignatures.isValid("invalid", "secret", signature.substring(2), PAYLOAD_BYTES)).isFalse();
+    assertThat(WebhookSignatures.isValid("invalid", "secret", "not hex", PAYLOAD_BYTES)).isFalse();
+    assertThat(WebhookSignatures.isValid("invalid", "secret", null, PAYLOAD_BYTES)).isFalse();
+  }
+
+  @Test
+  public void followsSecretChanges() {
+    String oldSignature = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "old").hmacHex(PAYLOAD);
+    String newSignature = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "new").hmacHex(PAYLOAD);
+
+    assertThat(WebhookSignatures.isValid("rotated", "old", oldSignature, PAYLOAD_BYTES)).isTrue();
+    assertThat(WebhookSignatures.isValid("rotated", "new", oldSignature, PAYLOAD_BYTES)).isFalse();
+    assertThat(WebhookSignatures.isValid("rotated", "new", newSignature, PAYLOAD_BYTES)).isTrue();
+  }
+}